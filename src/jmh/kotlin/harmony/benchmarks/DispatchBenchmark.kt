@@ -0,0 +1,56 @@
+package harmony.benchmarks
+
+import discord4j.core.`object`.entity.User
+import harmony.command.*
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks selecting the responders to attempt for an invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class DispatchBenchmark {
+
+    @Param("", "42", "42 hello", "1 2.5 true", "hello there general kenobi")
+    lateinit var args: String
+
+    private lateinit var command: InvocableCommand
+
+    @Setup
+    fun setup() {
+        command = buildCommand("overloaded") {
+            responder { handle { "none" } }
+            responder(arg<Int>()) { handle { "int" } }
+            responder(arg<String>()) { handle { "string" } }
+            responder(arg<User>()) { handle { "user" } }
+            responder(arg<Int>(), arg<String>()) { handle { "int, string" } }
+            responder(arg<Long>(), arg<Double>(), arg<Boolean>()) { handle { "long, double, boolean" } }
+        }
+    }
+
+    @Benchmark
+    fun compileTable() = DispatchTable(command.responders)
+
+    @Benchmark
+    fun candidates(): Array<DispatchCandidate> {
+        val table = command.dispatchTable
+        return table.candidates(table.countTokens(CommandTokenizer.tokenize(args)))
+    }
+
+    /**
+     * Candidate selection including the syntactic pre-checks done before any mapper runs.
+     */
+    @Benchmark
+    fun acceptedCandidates(): Int {
+        val table = command.dispatchTable
+        val tokens = CommandTokenizer.tokenize(args)
+        val tokenCount = table.countTokens(tokens)
+        return table.candidates(tokenCount).count { it.canAccept(tokens, tokenCount) }
+    }
+
+    @Suppress("DEPRECATION")
+    @Benchmark
+    fun generateCandidates() = generateCandidates(command.responders, CommandTokenizer.tokenize(args).size)
+}
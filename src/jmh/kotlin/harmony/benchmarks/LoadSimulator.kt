@@ -0,0 +1,206 @@
+package harmony.benchmarks
+
+import discord4j.common.util.Snowflake
+import harmony.command.CommandOptions
+import harmony.command.DispatchMode
+import harmony.command.arg
+import harmony.command.command
+import harmony.util.Feature
+import harmony.util.asPrefix
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Pushes synthetic messages through the real [harmony.command.HarmonyCommandHandler] pipeline of an [OfflineGateway] at
+ * a fixed rate, and measures the time from publishing each message to its reply being sent.
+ *
+ * Every message invokes a `ping` command carrying a sequence number, which the reply echoes back so it can be matched
+ * with the message it answers.
+ *
+ * @param rate The number of messages published per second.
+ * @param duration How long to publish messages for, after warming up.
+ * @param warmup How long to publish messages for before measuring.
+ * @param channels The number of channels the messages are spread over.
+ * @param restLatency The simulated round trip time of REST requests.
+ * @param dispatchMode The dispatch mode of the command handler.
+ */
+class LoadSimulator(private val rate: Int,
+                    private val duration: Duration,
+                    private val warmup: Duration = Duration.ofSeconds(2),
+                    private val channels: Int = 16,
+                    restLatency: Duration = Duration.ZERO,
+                    dispatchMode: DispatchMode = DispatchMode.CONCURRENT) {
+
+    private val gateway = OfflineGateway(SimulatedRest(restLatency))
+    private val options = CommandOptions(prefix = "!".asPrefix(), typoChecking = Feature.disable(),
+            dispatchMode = dispatchMode)
+    private val channelIds = LongArray(channels) { CHANNEL_ID + it }
+    private val warmupCount = (rate * warmup.toNanos() / NANOS_PER_SECOND).toInt()
+    private val total = warmupCount + (rate * duration.toNanos() / NANOS_PER_SECOND).toInt()
+    private val published = LongArray(total)
+    private val latencies = LongArray(total)
+    private val answered = AtomicInteger()
+    @Volatile
+    private var lastReply = 0L
+
+    init {
+        channelIds.forEach { gateway.addChannel(it) }
+
+        gateway.rest.onCreateMessage = { _, content ->
+            val now = System.nanoTime()
+            val seq = content.substringAfter(' ').toIntOrNull()
+            if (seq != null && seq in 0 until total) {
+                latencies[seq] = now - published[seq]
+                lastReply = now
+                answered.incrementAndGet()
+            }
+        }
+
+        gateway.harmony(options).command("ping") {
+            responder(arg<Int>("seq")) {
+                handle { "pong ${arg<Int>(0)}" }
+            }
+        }
+    }
+
+    /**
+     * Checks that an interactive command doesn't hold up dispatch. This opens `help` in a dm, which keeps listening
+     * for page reactions after replying, and then pings from another channel dispatched on the same lane. Should be
+     * called before [run].
+     *
+     * @param timeout How long to wait for each reply.
+     * @return The latency of the ping's reply, or null if it wasn't answered in time.
+     */
+    fun checkInteractive(timeout: Duration = Duration.ofSeconds(5)): Duration? {
+        val helpChannel = CHANNEL_ID - 1
+        val lane = options.laneOf(Snowflake.of(helpChannel))
+        val pingChannel = generateSequence(CHANNEL_ID - 2) { it - 1 }.first { options.laneOf(Snowflake.of(it)) == lane }
+        gateway.addChannel(helpChannel, guildId = null)
+        gateway.addChannel(pingChannel)
+
+        val helpSent = CountDownLatch(1)
+        val pinged = CompletableFuture<Long>()
+        val onCreateMessage = gateway.rest.onCreateMessage
+        gateway.rest.onCreateMessage = { channelId, _ ->
+            when (channelId) {
+                helpChannel -> helpSent.countDown()
+                pingChannel -> pinged.complete(System.nanoTime())
+            }
+        }
+
+        try {
+            // Help is registered once the command scan completes, so keep asking until it answers
+            val deadline = System.nanoTime() + timeout.toNanos()
+            do {
+                gateway.publish(gateway.messageCreate("!help", channelId = helpChannel, guildId = null))
+            } while (!helpSent.await(HELP_RETRY, TimeUnit.MILLISECONDS) && System.nanoTime() < deadline)
+            if (helpSent.count > 0) return null
+
+            val published = System.nanoTime()
+            gateway.publish(gateway.messageCreate("!ping 0", channelId = pingChannel))
+            return Duration.ofNanos(pinged.get(timeout.toNanos(), TimeUnit.NANOSECONDS) - published)
+        } catch (e: TimeoutException) {
+            return null
+        } finally {
+            gateway.rest.onCreateMessage = onCreateMessage
+        }
+    }
+
+    /**
+     * Runs the simulation, blocking until all replies have been sent or [drainTimeout] has passed since the last
+     * message was published.
+     *
+     * @param drainTimeout How long to wait for outstanding replies.
+     * @return The results.
+     */
+    fun run(drainTimeout: Duration = Duration.ofSeconds(10)): Report {
+        val start = System.nanoTime()
+        var seq = 0
+        while (seq < total) {
+            val due = minOf(total.toLong(), (System.nanoTime() - start) * rate / NANOS_PER_SECOND + 1).toInt()
+            while (seq < due) {
+                val event = gateway.messageCreate("!ping $seq", channelId = channelIds[seq % channels])
+                published[seq] = System.nanoTime()
+                gateway.publish(event)
+                seq++
+            }
+            LockSupport.parkNanos(TICK)
+        }
+        val end = System.nanoTime()
+
+        val deadline = end + drainTimeout.toNanos()
+        while (answered.get() < total && System.nanoTime() < deadline) LockSupport.parkNanos(TICK)
+
+        val measureStart = if (warmupCount < total) published[warmupCount] else end
+        val measured = (warmupCount until total).map { latencies[it] }.filter { it > 0 }.sorted()
+        val elapsed = maxOf(lastReply, end) - measureStart
+        return Report(total - warmupCount, measured.size, measured,
+                if (elapsed > 0) measured.size * NANOS_PER_SECOND.toDouble() / elapsed else 0.0)
+    }
+
+    /**
+     * The results of a simulation, excluding warmup.
+     *
+     * @param published The number of messages published.
+     * @param answered The number of messages which were replied to.
+     * @param latencies The sorted latencies of answered messages, in nanoseconds.
+     * @param throughput The sustained number of replies per second.
+     */
+    class Report(val published: Int, val answered: Int, val latencies: List<Long>, val throughput: Double) {
+
+        /**
+         * Gets a latency percentile.
+         *
+         * @param percentile The percentile, between 0 and 100.
+         * @return The latency in nanoseconds, or 0 if nothing was answered.
+         */
+        fun percentile(percentile: Double): Long = if (latencies.isEmpty()) 0
+                else latencies[minOf(latencies.size - 1, (latencies.size * percentile / 100).toInt())]
+
+        override fun toString(): String = buildString {
+            appendln("published:  $published")
+            appendln("answered:   $answered (${published - answered} unanswered)")
+            appendln("throughput: ${"%.1f".format(throughput)} replies/s")
+            for (p in PERCENTILES) appendln("p${p.toString().removeSuffix(".0")}:".padEnd(12) + millis(percentile(p)))
+            append("max:        ${millis(latencies.lastOrNull() ?: 0)}")
+        }
+
+        private fun millis(nanos: Long) = "%.3f ms".format(nanos / TimeUnit.MILLISECONDS.toNanos(1).toDouble())
+    }
+
+    private companion object {
+
+        const val NANOS_PER_SECOND = 1_000_000_000L
+
+        const val HELP_RETRY = 100L
+
+        val TICK = TimeUnit.MICROSECONDS.toNanos(200)
+
+        val PERCENTILES = doubleArrayOf(50.0, 90.0, 99.0, 99.9)
+    }
+}
+
+/**
+ * Runs a [LoadSimulator] and prints its report. Arguments are given as `key=value` pairs: `rate` (messages per second,
+ * default 1000), `seconds` (default 10), `warmup` (seconds, default 2), `channels` (default 16) and `latency` (simulated
+ * REST round trip in milliseconds, default 0) and `mode` (the dispatch mode, default concurrent).
+ */
+fun main(args: Array<String>) {
+    val options = args.map { it.split('=', limit = 2) }.filter { it.size == 2 }.associate { it[0] to it[1] }
+    val simulator = LoadSimulator(
+            rate = options["rate"]?.toInt() ?: 1000,
+            duration = Duration.ofSeconds(options["seconds"]?.toLong() ?: 10),
+            warmup = Duration.ofSeconds(options["warmup"]?.toLong() ?: 2),
+            channels = options["channels"]?.toInt() ?: 16,
+            restLatency = Duration.ofMillis(options["latency"]?.toLong() ?: 0),
+            dispatchMode = options["mode"]?.let { DispatchMode.valueOf(it.toUpperCase()) } ?: DispatchMode.CONCURRENT)
+    val interactive = simulator.checkInteractive()
+    println("ping beside an open help: " + (interactive?.let { "%.3f ms".format(it.toNanos() / 1e6) } ?: "not answered"))
+    println(simulator.run())
+    System.exit(0)
+}
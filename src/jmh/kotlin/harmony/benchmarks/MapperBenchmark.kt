@@ -0,0 +1,73 @@
+package harmony.benchmarks
+
+import discord4j.common.util.Snowflake
+import discord4j.core.`object`.entity.User
+import discord4j.core.event.domain.message.MessageCreateEvent
+import harmony.Harmony
+import harmony.command.CommandContext
+import harmony.command.argumentMappers
+import harmony.command.interfaces.CommandResultMapper
+import harmony.command.interfaces.SyncCommandArgumentMapper
+import harmony.command.resultMappers
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks the built-in argument and result mappers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class MapperBenchmark {
+
+    private lateinit var harmony: Harmony
+    private lateinit var event: MessageCreateEvent
+    private lateinit var context: CommandContext
+
+    @Setup
+    fun setup() {
+        val gateway = OfflineGateway()
+        harmony = gateway.harmony()
+        event = gateway.messageCreate("!cmd")
+        context = CommandContext(harmony, null, event.message)
+    }
+
+    private fun sync(type: Class<*>) = argumentMappers.getValue(type) as SyncCommandArgumentMapper<*>
+
+    @Suppress("UNCHECKED_CAST")
+    private fun <T> result(type: Class<T>) = resultMappers.getValue(type) as CommandResultMapper<T>
+
+    @Benchmark
+    fun mapInt() = sync(Integer.TYPE).tryMap(context, "-123456")
+
+    @Benchmark
+    fun mapLong() = sync(java.lang.Long.TYPE).tryMap(context, "1234567890123")
+
+    @Benchmark
+    fun mapDouble() = sync(java.lang.Double.TYPE).tryMap(context, "3.14159")
+
+    @Benchmark
+    fun mapBoolean() = sync(java.lang.Boolean.TYPE).tryMap(context, "True")
+
+    @Benchmark
+    fun mapSnowflake() = sync(Snowflake::class.java).tryMap(context, "$GUILD_ID")
+
+    @Benchmark
+    fun mapString() = sync(String::class.java).tryMap(context, "hello")
+
+    @Benchmark
+    fun rejectInt() = sync(Integer.TYPE).tryMap(context, "hello")
+
+    @Benchmark
+    fun mapUserMention(): User? = argumentMappers.getValue(User::class.java).map(context, "<@!$SELF_ID>")
+            .block() as User?
+
+    /**
+     * Only assembles the response, nothing is sent.
+     */
+    @Benchmark
+    fun resultString() = result(String::class.java).map(harmony, event, "pong")
+
+    @Benchmark
+    fun resultInt() = result(Integer.TYPE).map(harmony, event, 42)
+}
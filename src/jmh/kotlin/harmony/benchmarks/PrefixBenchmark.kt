@@ -0,0 +1,51 @@
+package harmony.benchmarks
+
+import discord4j.core.event.domain.message.MessageCreateEvent
+import harmony.command.CommandMatch
+import harmony.command.CommandOptions
+import harmony.command.HarmonyCommandHandler
+import harmony.command.buildCommand
+import harmony.util.Feature
+import harmony.util.asPrefix
+import harmony.util.asPrefixes
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks the pre-dispatch stage, which every message goes through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class PrefixBenchmark {
+
+    @Param("chatter", "prefixed", "mentioned", "unknown", "multi")
+    lateinit var kind: String
+
+    private lateinit var handler: HarmonyCommandHandler
+    private lateinit var event: MessageCreateEvent
+
+    @Setup
+    fun setup() {
+        val gateway = OfflineGateway()
+        val prefix = if (kind == "multi") listOf("!", "?", "hey bot", ">>").asPrefixes() else "!".asPrefix()
+        handler = HarmonyCommandHandler(gateway.harmony(), CommandOptions(prefix = prefix), Feature.disable())
+        for (i in 0 until 50) {
+            handler.registerCommand(buildCommand("command$i") {
+                aliases = arrayOf("alias$i")
+                responder { handle { i } }
+            })
+        }
+
+        event = gateway.messageCreate(when (kind) {
+            "chatter" -> "just a regular message nobody should have to look at twice"
+            "prefixed" -> "!Command25 some arguments"
+            "mentioned" -> "<@!$SELF_ID> alias25 some arguments"
+            "multi" -> "hey bot command25 some arguments"
+            else -> "!nonexistent some arguments"
+        })
+    }
+
+    @Benchmark
+    fun preDispatch(): CommandMatch? = handler.preDispatch(event)
+}
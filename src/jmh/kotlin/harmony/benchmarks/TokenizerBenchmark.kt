@@ -0,0 +1,55 @@
+package harmony.benchmarks
+
+import harmony.command.CommandContext
+import harmony.command.CommandTokenizer
+import harmony.command.argumentMappers
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks splitting arguments into tokens and mapping them to a responder's arguments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class TokenizerBenchmark {
+
+    @Param("short", "quoted", "long")
+    lateinit var input: String
+
+    private lateinit var args: String
+    private lateinit var context: CommandContext
+    private lateinit var tokenizer: CommandTokenizer
+
+    @Setup
+    fun setup() {
+        args = when (input) {
+            "short" -> "42 hello"
+            "quoted" -> "42 \"hello world\" 'it\\'s' \\\"escaped\\\""
+            else -> "42 " + "lorem ipsum dolor sit amet ".repeat(200)
+        }
+
+        val gateway = OfflineGateway()
+        context = CommandContext(gateway.harmony(), null, gateway.message("!cmd $args"))
+        tokenizer = CommandTokenizer(arrayOf(argumentMappers.getValue(Integer.TYPE),
+                argumentMappers.getValue(String::class.java)))
+    }
+
+    /**
+     * Scans every token.
+     */
+    @Benchmark
+    fun tokenizeAll() = CommandTokenizer.tokenize(args).size
+
+    /**
+     * Scans only what an (int, String) responder needs.
+     */
+    @Benchmark
+    fun tokenizeForResponder() = CommandTokenizer.tokenize(args).collapse(2)[1]
+
+    @Benchmark
+    fun mapSync() = tokenizer.mapSync(context, CommandTokenizer.tokenize(args).collapse(2))
+
+    @Benchmark
+    fun map() = tokenizer.map(context, CommandTokenizer.tokenize(args).collapse(2)).block()
+}
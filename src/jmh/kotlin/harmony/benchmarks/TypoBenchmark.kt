@@ -0,0 +1,53 @@
+package harmony.benchmarks
+
+import harmony.command.CommandRegistry
+import harmony.command.JaroWinklerTypoChecker
+import harmony.command.TypoIndex
+import harmony.command.buildCommand
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Benchmarks scoring command names when an unknown command is used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class TypoBenchmark {
+
+    @Param("10", "100", "1000")
+    var commandCount: Int = 0
+
+    private val checker = JaroWinklerTypoChecker()
+    private val registry = CommandRegistry()
+    private val index = TypoIndex()
+    private lateinit var names: List<String>
+
+    @Setup
+    fun setup() {
+        names = (0 until commandCount).map { "command$it" } + "ping"
+        names.forEach {
+            registry.register(buildCommand(it) { responder { handle { it } } })
+            index.add(it)
+        }
+    }
+
+    @Benchmark
+    fun suggest() = checker.suggest(names, "pnig")
+
+    /**
+     * Looking up candidates in the index, without the cache of recent misses.
+     */
+    @Benchmark
+    fun searchIndex(): Int {
+        var found = 0
+        index.search("pnig") { _, _ -> found++ }
+        return found
+    }
+
+    /**
+     * A repeated miss, answered by the cache.
+     */
+    @Benchmark
+    fun suggestIndexed() = checker.suggest(registry, "pnig")
+}
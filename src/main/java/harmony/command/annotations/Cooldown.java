@@ -0,0 +1,33 @@
+package harmony.command.annotations;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This annotation limits how often each user can invoke a command. Invocations over the limit are handled according to
+ * the {@link harmony.command.ThrottlePolicy} in the {@link harmony.command.CommandOptions}.
+ *
+ * @see Command
+ * @see harmony.command.RateLimit
+ */
+@Target(ElementType.TYPE)
+@Inherited
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cooldown {
+
+    /**
+     * The length of the cooldown.
+     */
+    long value();
+
+    /**
+     * The unit of the cooldown's length.
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * The number of uses allowed per cooldown.
+     */
+    int uses() default 1;
+}
@@ -3,10 +3,17 @@ package harmony.command.annotations;
 import com.squareup.javapoet.*;
 import discord4j.core.event.domain.message.MessageCreateEvent;
 import harmony.Harmony;
-import harmony.command.CommandContext;
-import harmony.command.CommandTokenizer;
+import discord4j.common.util.Snowflake;
+import discord4j.rest.util.Permission;
+import discord4j.rest.util.PermissionSet;
+import harmony.command.*;
+import harmony.command.interfaces.ArgumentMappingException;
+import harmony.command.interfaces.MappingResult;
+import harmony.command.util.ArgumentParsers;
+import harmony.command.util.CommandCall;
 import harmony.command.util.CommandLambdaFunction;
 import harmony.command.util.CommandWrapper;
+import harmony.command.util.CompiledCommands;
 import harmony.command.util.ProcessorUtils;
 import reactor.core.publisher.Mono;
 
@@ -25,12 +32,17 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Writer;
 import java.lang.reflect.Type;
+import java.time.Duration;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
- * Annotation processor that embeds data to make @Command annotated class discovery efficient.
+ * Annotation processor that embeds data to make @Command annotated class discovery efficient. Each command gets a
+ * generated wrapper which is able to build the command without reflection, and the commands found in each round are
+ * wired through a generated {@link CompiledCommands} implementation. Registries are generated in the round their
+ * commands are found in, never in the last round, so that they are still processed like any other source.
  *
  * <b>DO NOT instantiate this object yourself.</b>
  */
@@ -46,6 +58,15 @@ public class HarmonyAnnotationProcessor extends AbstractProcessor {
     private Filer filer;
     private Messager messager;
     private Set<String> commandNames = new HashSet<>();
+    private Set<String> previousCommandNames = null;
+    private List<String> registryNames = new ArrayList<>();
+    private List<Element> registeredCommands = new ArrayList<>();
+
+    /**
+     * The prefix of the simple names of the generated {@link CompiledCommands} implementations, followed by a hash of
+     * the commands each one builds so that modules sharing a package don't clash.
+     */
+    public static final String REGISTRY_NAME = "HarmonyCompiledCommands";
 
     public HarmonyAnnotationProcessor() {} // Required
 
@@ -78,90 +99,134 @@ public class HarmonyAnnotationProcessor extends AbstractProcessor {
                 .sorted(Comparator.comparingInt(this::methodHash))
                 .collect(Collectors.toList());
 
+        TypeMirror contextType = elementUtils.getTypeElement("harmony.command.CommandContext").asType();
+        TypeMirror stringType = elementUtils.getTypeElement("java.lang.String").asType();
+
+        List<MethodSpec> callMethods = new ArrayList<>();
+        CodeBlock.Builder wiringBlock = CodeBlock.builder()
+                .addStatement("this.cmdInstance = self")
+                .addStatement("this.funcs = new $T[$L]", CommandLambdaFunction.class, methods.size());
+
         int i = 0;
         for (ExecutableElement method : methods) {
             boolean hasReturn = method.getReturnType().getKind() != TypeKind.VOID;
-            boolean hasArgs = method.getParameters().size() > 0;
-            boolean hasContext = method.getParameters()
-                    .stream()
-                    .anyMatch(param -> typeUtils.isSameType(elementUtils.getTypeElement("harmony.command.CommandContext").asType(), param.asType()));
             boolean isStatic = method.getModifiers().contains(Modifier.STATIC);
+            List<? extends VariableElement> params = method.getParameters();
+
+            boolean hasContext = false;
+            boolean needsMappers = false;
+            int tokenCount = 0;
+            for (VariableElement param : params) {
+                if (typeUtils.isSameType(contextType, param.asType())) {
+                    hasContext = true;
+                } else {
+                    tokenCount++;
+                    needsMappers |= !isParsedInline(param.asType(), stringType);
+                }
+            }
+            boolean needsContext = hasContext || needsMappers;
+
+            CodeBlock call = CodeBlock.builder()
+                    .add(isStatic ? "$T." : "cmdInstance.", TypeName.get(element.asType()))
+                    .add("$L($L)", method.getSimpleName().toString(), IntStream.range(0, params.size())
+                            .mapToObj(p -> typeUtils.isSameType(contextType, params.get(p).asType())
+                                    ? CodeBlock.of("context")
+                                    : CodeBlock.of("arg$L", p))
+                            .collect(CodeBlock.joining(", ")))
+                    .build();
+            // The responder is only called once its arguments are mapped and the resolver has picked it
+            CodeBlock wrappedCall = CodeBlock.of("$T.just(($T) () -> $L)", Mono.class, CommandCall.class, hasReturn
+                    ? CodeBlock.of("$T.justOrEmpty($L)", Mono.class, call)
+                    : CodeBlock.of("$T.fromRunnable(() -> $L)", Mono.class, call));
+            CodeBlock mappingFailure = CodeBlock.of("return $T.error(new $T())", Mono.class,
+                    ArgumentMappingException.class);
 
             CodeBlock.Builder impl = CodeBlock.builder();
 
-            boolean needsArgMapping = hasArgs && !(hasContext && method.getParameters().size() == 1);
-            String callPrefix =  needsArgMapping ?
-                    "return mappedArgsMono.flatMap((mappedArgs) -> {" : "{";
-            callPrefix += hasReturn ? "return $T.justOrEmpty(" : "return $T.fromRunnable(() -> {";
-            callPrefix += isStatic ? "" : "cmdInstance.";
+            if (needsMappers) {  // Mappers are only known at runtime, so async ones fall back to reactive composition
+                impl.beginControlFlow("if (!tokenHandler.isSynchronous())")
+                        .add(generateReactiveCall(method, contextType, wrappedCall))
+                        .endControlFlow();
+            }
 
-            String callSuffix;
-            if (needsArgMapping)
-                callSuffix = hasReturn ? "})" : "}}))";
-            else
-                callSuffix = hasReturn ? ");}" : ";});}";
+            if (tokenCount > 0) {
+                impl.beginControlFlow("if (tokens.getSize() != $L)", tokenCount)
+                        .addStatement(mappingFailure)
+                        .endControlFlow();
+            }
 
-            if (!hasArgs) {
-                impl.add(callPrefix + "$L()" + callSuffix, Mono.class, method.getSimpleName().toString());
-            } else {
-                impl.addStatement("$T context = $T.fromMessageCreateEvent(harmony, event)",
-                        CommandContext.class, CommandContext.class);
+            CodeBlock.Builder mapped = CodeBlock.builder();
+            int token = 0;
+            for (int p = 0; p < params.size(); p++) {
+                TypeMirror type = params.get(p).asType();
+                if (typeUtils.isSameType(contextType, type))
+                    continue;
+
+                impl.addStatement("$T token$L = tokens.get($L)", String.class, p, token++);
+                String parser = inlineParser(type);
+                if (parser != null) {
+                    impl.beginControlFlow("if (!$T.$L(token$L))", ArgumentParsers.class, parser, p)
+                            .addStatement(mappingFailure)
+                            .endControlFlow();
+                }
 
-                if (hasContext && method.getParameters().size() == 1) { // only arg is context
-                    impl.add(callPrefix + "$L(context)" + callSuffix, Mono.class, method.getSimpleName().toString());
-                } else {
-                    impl.addStatement("$T<$T> mappedArgsMono = tokenHandler.map(context, tokens)", Mono.class, List.class);
-                    StringJoiner paramCalls = new StringJoiner(",");
-                    int paramCount = 0;
-                    for (VariableElement param : method.getParameters()) {
-                        paramCalls.add("(" + param.asType().toString() + ") mappedArgs.get(" + paramCount + ")");
-                        paramCount++;
-                    }
-                    impl.addStatement(callPrefix + "$L($L));" + callSuffix, Mono.class, method.getSimpleName().toString(), paramCalls.toString());
+                switch (type.getKind()) {
+                    case INT:
+                        impl.addStatement("int arg$L = $T.parseInt(token$L)", p, Integer.class, p);
+                        break;
+                    case LONG:
+                        impl.addStatement("long arg$L = $T.parseLong(token$L)", p, Long.class, p);
+                        break;
+                    case DOUBLE:
+                        impl.addStatement("double arg$L = $T.parseDouble(token$L)", p, Double.class, p);
+                        break;
+                    case BOOLEAN:
+                        impl.addStatement("boolean arg$L = token$L.equalsIgnoreCase($S)", p, p, "true");
+                        break;
+                    default:
+                        if (typeUtils.isSameType(stringType, type)) {
+                            impl.addStatement("$T arg$L = token$L", String.class, p, p);
+                        } else {
+                            mapped.addStatement("$T<$T> mapped$L = tokenHandler.tryMap($L, context, token$L)",
+                                    MappingResult.class, TypeName.get(type).box(), p, p, p)
+                                    .beginControlFlow("if (!mapped$L.isSuccess())", p)
+                                    .addStatement(mappingFailure)
+                                    .endControlFlow()
+                                    .addStatement("$T arg$L = mapped$L.get()", TypeName.get(type), p, p);
+                        }
                 }
             }
 
-            MethodSpec callMethod = MethodSpec.methodBuilder("call")
-                    .returns(Mono.class)
-                    .addModifiers(Modifier.PUBLIC)
+            if (needsContext) {
+                impl.add("return $T.create(harmony, event).flatMap((context) -> {\n$>", CommandContext.class)
+                        .add(mapped.build())
+                        .addStatement("return $L", wrappedCall)
+                        .add("$<});\n");
+            } else {
+                impl.addStatement("return $L", wrappedCall);
+            }
+
+            callMethods.add(MethodSpec.methodBuilder("call$" + i)
+                    .returns(ParameterizedTypeName.get(Mono.class, CommandCall.class))
+                    .addModifiers(Modifier.PRIVATE)
                     .addParameter(CommandTokenizer.class, "tokenHandler")
                     .addParameter(Harmony.class, "harmony")
                     .addParameter(MessageCreateEvent.class, "event")
-                    .addParameter(Deque.class, "tokens")
-                    .addAnnotation(Override.class)
+                    .addParameter(Tokens.class, "tokens")
                     .addCode(impl.build())
-                    .build();
+                    .build());
 
-            TypeSpec type = TypeSpec.classBuilder(typeName + "$CommandWrapper$" + i)
-                    .addModifiers(Modifier.PUBLIC)
-                    .addSuperinterface(CommandLambdaFunction.class)
-                    .addOriginatingElement(element)
-                    .addMethod(callMethod)
-                    .addField(FieldSpec.builder(TypeName.get(element.asType()), "cmdInstance", Modifier.FINAL).build())
-                    .addMethod(MethodSpec
-                            .constructorBuilder()
-                            .addModifiers(Modifier.PUBLIC)
-                            .addParameter(TypeName.get(element.asType()), "self")
-                            .addCode("this.cmdInstance = self;")
-                            .build())
-                    .build();
-
-            JavaFile.builder(packageName, type).build().writeTo(filer);
+            wiringBlock.addStatement("this.funcs[$L] = this::call$$$L", i, i);
 
             i++;
         }
 
-        CodeBlock.Builder wiringBlock = CodeBlock.builder()
-                .addStatement("this.funcs = new $T[" + i + "]", CommandLambdaFunction.class);
-
-        for (int j = 0; j < i; j++) {
-            wiringBlock.addStatement("this.funcs[$L] = ($T) new $L.$L$LCommandWrapper$L$L(self)", j, CommandLambdaFunction.class, packageName, typeName, "$", "$", j);
-        }
-
         TypeSpec wrapper = TypeSpec.classBuilder(typeName + "$CommandWrapper")
                 .addModifiers(Modifier.PUBLIC)
                 .addSuperinterface(CommandWrapper.class)
                 .addOriginatingElement(element)
+                .addMethod(generateCompileMethod((TypeElement) element, methods))
+                .addField(FieldSpec.builder(TypeName.get(element.asType()), "cmdInstance", Modifier.FINAL).build())
                 .addField(FieldSpec.builder(TypeName.get(CommandLambdaFunction[].class),
                         "funcs", Modifier.FINAL).build())
                 .addMethod(MethodSpec
@@ -175,20 +240,266 @@ public class HarmonyAnnotationProcessor extends AbstractProcessor {
                         .returns(CommandLambdaFunction[].class)
                         .addCode("return this.funcs;")
                         .build())
+                .addMethods(callMethods)
         .build();
 
         JavaFile.builder(packageName, wrapper).build().writeTo(filer);
     }
 
+    // The ArgumentParsers check matching the types which are parsed inline, or null if none is needed
+    private String inlineParser(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT: return "isInt";
+            case LONG: return "isLong";
+            case DOUBLE: return "isDouble";
+            case BOOLEAN: return "isBoolean";
+            default: return null;
+        }
+    }
+
+    private boolean isParsedInline(TypeMirror type, TypeMirror stringType) {
+        return inlineParser(type) != null || typeUtils.isSameType(stringType, type);
+    }
+
+    // Maps all arguments through the CommandTokenizer, used when any of the mappers are asynchronous
+    private CodeBlock generateReactiveCall(ExecutableElement method, TypeMirror contextType, CodeBlock wrappedCall) {
+        CodeBlock.Builder impl = CodeBlock.builder()
+                .add("return $T.create(harmony, event).flatMap((context) -> {\n$>", CommandContext.class)
+                .addStatement("$T<$T<?>> mappedArgsMono = tokenHandler.map(context, tokens)", Mono.class, List.class)
+                .add("return mappedArgsMono.flatMap((mappedArgs) -> {\n$>");
+
+        List<? extends VariableElement> params = method.getParameters();
+        for (int p = 0; p < params.size(); p++) {
+            if (typeUtils.isSameType(contextType, params.get(p).asType()))
+                continue;
+
+            TypeName type = TypeName.get(params.get(p).asType());
+            impl.addStatement("$T arg$L = ($T) mappedArgs.get($L)", type, p, type, p);
+        }
+
+        return impl.addStatement("return $L", wrappedCall)
+                .add("$<});\n")
+                .add("$<});\n")
+                .build();
+    }
+
+    private boolean hasNoArgConstructor(TypeElement element) {
+        return element.getEnclosedElements()
+                .stream()
+                .filter(e -> e.getKind() == ElementKind.CONSTRUCTOR)
+                .map(e -> (ExecutableElement) e)
+                .anyMatch(c -> c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE));
+    }
+
+    private CodeBlock stringArray(List<String> strings) {
+        if (strings.isEmpty())
+            return CodeBlock.of("null");
+        return CodeBlock.of("new $T[]{$L}", String.class, strings.stream()
+                .map(str -> CodeBlock.of("$S", str))
+                .collect(CodeBlock.joining(", ")));
+    }
+
+    private CodeBlock classArray(List<TypeMirror> types) {
+        return CodeBlock.of("new $T<?>[]{$L}", Class.class, types.stream()
+                .map(type -> CodeBlock.of("$T.class", TypeName.get(typeUtils.erasure(type))))
+                .collect(CodeBlock.joining(", ")));
+    }
+
+    // Generates a static factory which builds the command without any reflection, mirroring AnnotationProcessorScanner
+    private MethodSpec generateCompileMethod(TypeElement element, List<ExecutableElement> methods) {
+        TypeName commandType = TypeName.get(element.asType());
+        TypeMirror contextType = elementUtils.getTypeElement("harmony.command.CommandContext").asType();
+
+        Name nameAnnotation = element.getAnnotation(Name.class);
+        String name = (nameAnnotation != null
+                ? nameAnnotation.value()
+                : element.getSimpleName().toString().replaceFirst("Command$", "")).toLowerCase();
+
+        List<String> aliases = Arrays.stream(element.getAnnotationsByType(Alias.class))
+                .map(Alias::value)
+                .distinct()
+                .collect(Collectors.toList());
+
+        OnlyIn onlyIn = element.getAnnotation(OnlyIn.class);
+        Help help = element.getAnnotation(Help.class);
+        RequiresPermissions requiresPermissions = element.getAnnotation(RequiresPermissions.class);
+        ServerSpecific serverSpecific = element.getAnnotation(ServerSpecific.class);
+        Cooldown cooldown = element.getAnnotation(Cooldown.class);
+        Isolated isolated = element.getAnnotation(Isolated.class);
+
+        CodeBlock.Builder body = CodeBlock.builder()
+                .addStatement("$T instance = new $T()", commandType, commandType)
+                .addStatement("$T[] functions = new $L$$CommandWrapper(instance).functions()",
+                        CommandLambdaFunction.class, element.getSimpleName())
+                .addStatement("$T responders = new $T()", Node.class, Node.class);
+
+        CodeBlock.Builder variants = CodeBlock.builder();
+        int i = 0;
+        for (ExecutableElement method : methods) {
+            List<TypeMirror> paramTypes = method.getParameters()
+                    .stream()
+                    .map(VariableElement::asType)
+                    .collect(Collectors.toList());
+            body.addStatement("responders.addResponder($L, new $T(functions[$L], $L))",
+                    classArray(paramTypes), CommandLambdaHandle.class, i, classArray(paramTypes));
+
+            CodeBlock args = method.getParameters()
+                    .stream()
+                    .filter(param -> !typeUtils.isAssignable(param.asType(), contextType))
+                    .map(param -> {
+                        Name paramName = param.getAnnotation(Name.class);
+                        Help paramHelp = param.getAnnotation(Help.class);
+                        return CodeBlock.of("new $T($S, $S, $T.class)", CommandArgumentInfo.class,
+                                paramName != null ? paramName.value() : param.getSimpleName().toString(),
+                                paramHelp != null ? paramHelp.value() : null,
+                                TypeName.get(typeUtils.erasure(param.asType())));
+                    })
+                    .collect(CodeBlock.joining(", "));
+            Help methodHelp = method.getAnnotation(Help.class);
+            if (i > 0)
+                variants.add(",\n");
+            variants.add("new $T($S, new $T[]{$L})", CommandVariantInfo.class,
+                    methodHelp != null ? methodHelp.value() : null, CommandArgumentInfo.class, args);
+            i++;
+        }
+
+        CodeBlock permissions = requiresPermissions != null
+                ? CodeBlock.of("$T.of($L)", PermissionSet.class, Arrays.stream(requiresPermissions.value())
+                    .map(permission -> CodeBlock.of("$T.$L", Permission.class, permission.name()))
+                    .collect(CodeBlock.joining(", ")))
+                : CodeBlock.of("null");
+
+        CodeBlock servers = serverSpecific != null
+                ? CodeBlock.of("new $T[]{$L}", Snowflake.class, Arrays.stream(serverSpecific.value())
+                    .map(server -> CodeBlock.of("$T.of($S)", Snowflake.class, server))
+                    .collect(CodeBlock.joining(", ")))
+                : CodeBlock.of("null");
+
+        CodeBlock rateLimit = cooldown != null
+                ? CodeBlock.of("new $T($L, $T.ofNanos($LL))", RateLimit.class, cooldown.uses(), Duration.class,
+                    cooldown.unit().toNanos(cooldown.value()))
+                : CodeBlock.of("null");
+
+        body.add("return new $T(\n$>$S,\n$L,\n$S,\n$L,\n$L,\n$T.$L,\n$L,\nnew $T[]{\n$>$L$<},\nresponders,\n$L,\n$L$<);\n",
+                InvocableCommand.class, name, stringArray(aliases), help != null ? help.value() : null, permissions,
+                element.getAnnotation(BotOwnerOnly.class) != null, ChannelType.class,
+                onlyIn != null ? onlyIn.value().name() : ChannelType.ALL.name(), servers, CommandVariantInfo.class,
+                variants.build(), rateLimit, isolated != null ? isolated.value() : null);
+
+        return MethodSpec.methodBuilder("compile")
+                .addJavadoc("Builds the command, this is called by the generated $T.\n", CompiledCommands.class)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(InvocableCommand.class)
+                .addCode(body.build())
+                .build();
+    }
+
+    // Generates a CompiledCommands implementation which builds the commands found in a round
+    private void generateRegistry(Set<String> names) throws IOException {
+        List<TypeElement> commands = names.stream()
+                .sorted()
+                .map(elementUtils::getTypeElement)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+        if (commands.isEmpty())
+            return;
+
+        String packageName = elementUtils.getPackageOf(commands.get(0)).getQualifiedName().toString();
+        String registryName = REGISTRY_NAME + "_" + Integer.toHexString(commands.stream()
+                .map(command -> command.getQualifiedName().toString())
+                .collect(Collectors.joining(","))
+                .hashCode());
+
+        CodeBlock.Builder body = CodeBlock.builder()
+                .addStatement("$T<$T> commands = new $T<>($L)", List.class, InvocableCommand.class, ArrayList.class,
+                        commands.size());
+        for (TypeElement command : commands) {
+            body.addStatement("commands.add($T.compile())", ClassName.get(
+                    elementUtils.getPackageOf(command).getQualifiedName().toString(),
+                    command.getSimpleName() + "$CommandWrapper"));
+        }
+        body.addStatement("return commands");
+
+        CodeBlock classNames = commands.stream()
+                .map(command -> CodeBlock.of("$S", command.getQualifiedName().toString()))
+                .collect(CodeBlock.joining(",\n"));
+
+        TypeSpec.Builder registry = TypeSpec.classBuilder(registryName)
+                .addJavadoc("Generated by {@link $T}, do not modify.\n", HarmonyAnnotationProcessor.class)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addSuperinterface(CompiledCommands.class)
+                .addMethod(MethodSpec.methodBuilder("commands")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(ParameterizedTypeName.get(List.class, InvocableCommand.class))
+                        .addCode(body.build())
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("commandClasses")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(ParameterizedTypeName.get(List.class, String.class))
+                        .addStatement("return $T.asList(\n$>$L$<)", Arrays.class, classNames)
+                        .build());
+        commands.forEach(registry::addOriginatingElement);
+
+        JavaFile.builder(packageName, registry.build()).build().writeTo(filer);
+        registryNames.add(packageName + "." + registryName);
+        registeredCommands.addAll(commands);
+    }
+
+    // Lists every generated registry as a service, resources can still be created in the last round
+    private void generateServices() throws IOException {
+        if (registryNames.isEmpty())
+            return;
+
+        FileObject fo = filer.createResource(StandardLocation.CLASS_OUTPUT, "",
+                "META-INF/services/" + CompiledCommands.class.getName(), registeredCommands.toArray(new Element[0]));
+        try (Writer w = fo.openWriter()) {
+            for (String name : registryNames)
+                w.append(name).append("\n");
+        }
+    }
+
+    private void mergePreviousCommandNames(boolean delete) {
+        String location = "META-INF/harmony.commands";
+        try {
+            FileObject fo = filer.getResource(StandardLocation.CLASS_OUTPUT, "", location);
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fo.openInputStream(),
+                    StandardCharsets.UTF_8))) { // Can't check if it exists, must catch an exception from here
+
+                reader.lines()
+                        .map(line -> {
+                            int comment = line.indexOf("#");
+                            return (comment >= 0 ? line.substring(0, comment) : line).trim();
+                        })
+                        .filter(line -> !line.isEmpty())
+                        .forEach(commandNames::add);
+            }
+            if (delete)
+                fo.delete();
+        } catch (Throwable e) {
+            messager.printMessage(Diagnostic.Kind.NOTE, location + " does not yet exist!\n");
+        }
+    }
+
     @Override
     public synchronized boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
         if (roundEnv.errorRaised())
             return false;
 
 //        Map<String, String> subCommands = new HashMap<>(); // Handle fqns of @SubCommend annotation -> @Command annotated classes
+        Set<String> roundNames = new HashSet<>();
         for (Element annotated : roundEnv.getElementsAnnotatedWith(Command.class)) {
             if (annotated.getKind() == ElementKind.CLASS) {
+                if (!hasNoArgConstructor((TypeElement) annotated)) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, "@Command classes must have a no-argument constructor!",
+                            annotated);
+                    continue;
+                }
                 commandNames.add(annotated.asType().toString());
+                roundNames.add(annotated.asType().toString());
                 try {
                     generateWrapperFor(annotated);
                 } catch (IOException e) {
@@ -197,8 +508,22 @@ public class HarmonyAnnotationProcessor extends AbstractProcessor {
             }
         }
 
-        if (!roundEnv.processingOver())  // Only process at end
+        if (!roundEnv.processingOver()) {  // Commands can still appear in later rounds, each round gets its own registry
+            if (previousCommandNames == null) {  // Commands from an earlier incremental build which aren't recompiled
+                Set<String> current = new HashSet<>(commandNames);
+                mergePreviousCommandNames(false);
+                previousCommandNames = new HashSet<>(commandNames);
+                previousCommandNames.removeAll(current);
+                roundNames.addAll(previousCommandNames);
+            }
+
+            try {
+                generateRegistry(roundNames);
+            } catch (IOException e) {
+                messager.printMessage(Diagnostic.Kind.NOTE, "Unable to generate the command registry\n");
+            }
             return true;
+        }
 
 //        for (Element annotated : roundEnv.getElementsAnnotatedWith(SubCommand.class)) {
 //            if (annotated.getKind() == ElementKind.CLASS) {
@@ -214,24 +539,7 @@ public class HarmonyAnnotationProcessor extends AbstractProcessor {
 //        }
 
         String location = "META-INF/harmony.commands";
-        try {
-            FileObject fo = filer.getResource(StandardLocation.CLASS_OUTPUT, "", location);
-
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fo.openInputStream(),
-                    StandardCharsets.UTF_8))) { // Can't check if it exists, must catch an exception from here
-
-                reader.lines()
-                        .map(line -> {
-                            int comment = line.indexOf("#");
-                            return (comment >= 0 ? line.substring(0, comment) : line).trim();
-                        })
-                        .filter(line -> !line.isEmpty())
-                        .forEach(commandNames::add);
-            }
-            fo.delete();
-        } catch (Throwable e) {
-            messager.printMessage(Diagnostic.Kind.NOTE, location + " does not yet exist!\n");
-        }
+        mergePreviousCommandNames(true);
 
         try {
             FileObject fo = filer.createResource(StandardLocation.CLASS_OUTPUT, "", location,
@@ -246,6 +554,12 @@ public class HarmonyAnnotationProcessor extends AbstractProcessor {
             messager.printMessage(Diagnostic.Kind.NOTE, "Error caught attempting to output data.");
         }
 
+        try {
+            generateServices();
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.NOTE, "Unable to register the command registries\n");
+        }
+
 //        try {
 //            FileObject fo = filer.createResource(StandardLocation.CLASS_OUTPUT,
 //                    "", "META-INF/harmony.subcommands");
@@ -0,0 +1,21 @@
+package harmony.command.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * This annotation runs a command on its own pool of threads rather than on the shared event threads. This is useful
+ * for commands which block or are otherwise slow, so they can't hold up other commands.
+ *
+ * @see Command
+ */
+@Target(ElementType.TYPE)
+@Inherited
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Isolated {
+
+    /**
+     * The maximum number of threads in the command's pool.
+     */
+    int value() default 1;
+}
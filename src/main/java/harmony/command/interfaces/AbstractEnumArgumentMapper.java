@@ -5,21 +5,58 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import reactor.core.publisher.Mono;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
- * Utility class for implementing an argument mapper for a custom enum class.
+ * Utility class for implementing an argument mapper for a custom enum class. Tokens are mapped to the constant with
+ * the same name, {@link #map(CommandContext, String)} can be overridden to map them differently.
  *
  * @see CommandArgumentMapper
+ * @see SyncEnumArgumentMapper
  * @see com.austinv11.servicer.WireService
  */
 public abstract class AbstractEnumArgumentMapper<T extends Enum<T>> implements CommandArgumentMapper<T> {
 
+    private volatile @Nullable Map<String, T> constants = null;
+    private volatile @Nullable Boolean checksNames = null;
+
+    @Nullable
+    T constant(@NotNull String token) {
+        Map<String, T> map = constants;
+        if (map == null) {
+            map = new HashMap<>();
+            for (T constant : accepts().getEnumConstants())
+                map.put(constant.name(), constant);
+            constants = map;
+        }
+        return map.get(token);
+    }
+
+    // Only the default mapping is known to reject tokens which aren't constant names
+    boolean isDefault(@NotNull String method, Class<?> declaringClass) {
+        Boolean checks = checksNames;
+        if (checks == null) {
+            try {
+                checks = getClass().getMethod(method, CommandContext.class, String.class).getDeclaringClass()
+                        == declaringClass;
+            } catch (NoSuchMethodException e) {
+                checks = false;
+            }
+            checksNames = checks;
+        }
+        return checks;
+    }
+
+    @Override
+    public boolean canAccept(@NotNull String token) {
+        return !isDefault("map", AbstractEnumArgumentMapper.class) || constant(token) != null;
+    }
+
     @NotNull
     @Override
     public Mono<T> map(@NotNull CommandContext context, @NotNull String token) throws ArgumentMappingException {
-        try {
-            return Mono.just(Enum.valueOf(accepts(), token));
-        } catch (Throwable e) {
-            return Mono.error(new ArgumentMappingException());
-        }
+        T constant = constant(token);
+        return constant != null ? Mono.just(constant) : Mono.error(new ArgumentMappingException());
     }
 }
@@ -0,0 +1,97 @@
+package harmony.command.interfaces;
+
+import discord4j.common.util.Snowflake;
+import org.jetbrains.annotations.NotNull;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This interface is useful for loading prefixes asynchronously, for example from a database. Unlike
+ * {@link PrefixProvider}, prefixes are per guild rather than per channel. Multiple prefixes can be provided by
+ * overriding {@link #getGuildPrefixes(Snowflake)} and {@link #getDmPrefixes(Snowflake)}.
+ * <p>
+ * Providers are not called on the dispatch path directly, wrap them in a {@link harmony.command.CachingPrefixProvider}
+ * which caches the prefixes and loads missing ones in batches.
+ *
+ * @see harmony.command.CachingPrefixProvider
+ * @see PrefixProvider
+ */
+public interface AsyncPrefixProvider {
+
+    /**
+     * This is called to retrieve the prefix for a given guild.
+     *
+     * @param guildId The guild id.
+     * @return A mono returning the prefix if there is one, else empty.
+     */
+    @NotNull
+    Mono<String> getGuildPrefix(@NotNull Snowflake guildId);
+
+    /**
+     * This is called to retrieve the prefix for a given private channel.
+     *
+     * @param authorId The dm's author's id.
+     * @return A mono returning the prefix if there is one, else empty.
+     */
+    @NotNull
+    Mono<String> getDmPrefix(@NotNull Snowflake authorId);
+
+    /**
+     * This is called to retrieve all prefixes for a given guild. By default this is just the
+     * {@link #getGuildPrefix(Snowflake)}.
+     *
+     * @param guildId The guild id.
+     * @return A mono returning the prefixes, empty if there are none.
+     */
+    @NotNull
+    default Mono<Set<String>> getGuildPrefixes(@NotNull Snowflake guildId) {
+        return getGuildPrefix(guildId).map(Collections::singleton);
+    }
+
+    /**
+     * This is called to retrieve all prefixes for a given private channel. By default this is just the
+     * {@link #getDmPrefix(Snowflake)}.
+     *
+     * @param authorId The dm's author's id.
+     * @return A mono returning the prefixes, empty if there are none.
+     */
+    @NotNull
+    default Mono<Set<String>> getDmPrefixes(@NotNull Snowflake authorId) {
+        return getDmPrefix(authorId).map(Collections::singleton);
+    }
+
+    /**
+     * This is called to retrieve the prefixes for multiple guilds at once. By default this calls
+     * {@link #getGuildPrefixes(Snowflake)} for each guild, override it to load them in a single query.
+     *
+     * @param guildIds The guild ids.
+     * @return A mono returning the guild ids -> prefixes, guilds without a prefix may be omitted.
+     */
+    @NotNull
+    default Mono<Map<Snowflake, Set<String>>> getGuildPrefixes(@NotNull Collection<Snowflake> guildIds) {
+        return Flux.fromIterable(guildIds)
+                .flatMap(id -> getGuildPrefixes(id).map(prefixes -> Tuples.of(id, prefixes)))
+                .collectMap(Tuple2::getT1, Tuple2::getT2);
+    }
+
+    /**
+     * This is called to retrieve the prefixes for multiple private channels at once. By default this calls
+     * {@link #getDmPrefixes(Snowflake)} for each author, override it to load them in a single query.
+     *
+     * @param authorIds The dms' authors' ids.
+     * @return A mono returning the author ids -> prefixes, authors without a prefix may be omitted.
+     */
+    @NotNull
+    default Mono<Map<Snowflake, Set<String>>> getDmPrefixes(@NotNull Collection<Snowflake> authorIds) {
+        return Flux.fromIterable(authorIds)
+                .flatMap(id -> getDmPrefixes(id).map(prefixes -> Tuples.of(id, prefixes)))
+                .collectMap(Tuple2::getT1, Tuple2::getT2);
+    }
+}
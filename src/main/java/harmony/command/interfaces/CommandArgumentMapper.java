@@ -14,6 +14,7 @@ import reactor.core.publisher.Mono;
  * {@link com.austinv11.servicer.WireService}.
  *
  * @see AbstractEnumArgumentMapper
+ * @see SyncEnumArgumentMapper
  * @see com.austinv11.servicer.WireService
  * @see ArgumentMappingException
  */
@@ -37,4 +38,17 @@ public interface CommandArgumentMapper<T> {
      * @throws ArgumentMappingException Throw this to signal that it is impossible to map a token to the java object type.
      */
     @NotNull Mono<T> map(@NotNull CommandContext context, @NotNull String token) throws ArgumentMappingException;
+
+    /**
+     * Called to cheaply check whether a token could possibly be mapped, before any mapping is attempted. This must
+     * be synchronous and should only inspect the token's syntax, returning true when unsure.
+     * <p>
+     * By default, all tokens are accepted.
+     *
+     * @param token The string to check.
+     * @return False if the token can never be mapped by {@link #map(CommandContext, String)}, else true.
+     */
+    default boolean canAccept(@NotNull String token) {
+        return true;
+    }
 }
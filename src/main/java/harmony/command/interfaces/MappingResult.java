@@ -0,0 +1,89 @@
+package harmony.command.interfaces;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The outcome of synchronously mapping a token. This allows mappers to signal that a token cannot be mapped without
+ * throwing, which keeps overload probing and user typos from ever building a stack trace.
+ *
+ * @see SyncCommandArgumentMapper
+ */
+public final class MappingResult<T> {
+
+    private static final MappingResult<?> FAILURE = new MappingResult<>(null);
+
+    private final @Nullable T value;
+
+    private MappingResult(@Nullable T value) {
+        this.value = value;
+    }
+
+    /**
+     * Creates a successful result.
+     *
+     * @param value The mapped value.
+     * @return The result.
+     */
+    @NotNull
+    public static <T> MappingResult<T> success(@NotNull T value) {
+        return new MappingResult<>(value);
+    }
+
+    /**
+     * Retrieves the result signalling that a token could not be mapped.
+     *
+     * @return The (shared) failed result.
+     */
+    @SuppressWarnings("unchecked")
+    @NotNull
+    public static <T> MappingResult<T> failure() {
+        return (MappingResult<T>) FAILURE;
+    }
+
+    /**
+     * Creates a result from a nullable value, null being treated as a failure.
+     *
+     * @param value The mapped value or null.
+     * @return The result.
+     */
+    @NotNull
+    public static <T> MappingResult<T> ofNullable(@Nullable T value) {
+        return value == null ? failure() : success(value);
+    }
+
+    /**
+     * Checks whether the token was mapped.
+     *
+     * @return True if successful.
+     */
+    public boolean isSuccess() {
+        return value != null;
+    }
+
+    /**
+     * Gets the mapped value.
+     *
+     * @return The value.
+     *
+     * @throws NoSuchElementException If the mapping failed.
+     */
+    @NotNull
+    public T get() {
+        if (value == null)
+            throw new NoSuchElementException("The token could not be mapped!");
+        return value;
+    }
+
+    /**
+     * Gets the mapped value if there is one.
+     *
+     * @return The value or null if the mapping failed.
+     */
+    @Nullable
+    public T orNull() {
+        return value;
+    }
+}
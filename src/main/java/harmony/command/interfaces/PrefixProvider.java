@@ -3,10 +3,15 @@ package harmony.command.interfaces;
 import discord4j.common.util.Snowflake;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Optional;
+import java.util.Set;
 
 /**
- * This interface is useful for programmatically defining a prefix.
+ * This interface is useful for programmatically defining a prefix. Multiple prefixes can be provided by overriding
+ * {@link #getGuildPrefixes(Snowflake, Snowflake)} and {@link #getDmPrefixes(Snowflake)}, the longest one a message
+ * starts with is used.
  *
  * @see #staticPrefixProvider(String)
  * @see #noPrefixProvider()
@@ -33,6 +38,35 @@ public interface PrefixProvider {
     @NotNull
     Optional<String> getDmPrefix(@NotNull Snowflake authorId);
 
+    /**
+     * This is called to dynamically retrieve all prefixes for a given guild. By default this is just the
+     * {@link #getGuildPrefix(Snowflake, Snowflake)}.
+     * <p>
+     * Prefix sets are compiled into matchers which are cached by the identity of the set, so return the same set
+     * instances while prefixes are unchanged. Single prefixes are cached by value.
+     *
+     * @param guildId The guild id.
+     * @param channelId The channel id.
+     * @return The prefixes, empty if there are none.
+     */
+    @NotNull
+    default Set<String> getGuildPrefixes(@NotNull Snowflake guildId, @NotNull Snowflake channelId) {
+        return getGuildPrefix(guildId, channelId).map(Collections::singleton).orElse(Collections.emptySet());
+    }
+
+    /**
+     * This is called to dynamically retrieve all prefixes for a given private channel. By default this is just the
+     * {@link #getDmPrefix(Snowflake)}.
+     *
+     * @param authorId The dm's author's id.
+     * @return The prefixes, empty if there are none.
+     * @see #getGuildPrefixes(Snowflake, Snowflake)
+     */
+    @NotNull
+    default Set<String> getDmPrefixes(@NotNull Snowflake authorId) {
+        return getDmPrefix(authorId).map(Collections::singleton).orElse(Collections.emptySet());
+    }
+
     /**
      * Creates a PrefixProvider that returns the same prefix regardless of context.
      *
@@ -41,17 +75,42 @@ public interface PrefixProvider {
      */
     @NotNull
     static PrefixProvider staticPrefixProvider(@NotNull String prefix) {
+        return staticPrefixProvider(Collections.singleton(prefix));
+    }
+
+    /**
+     * Creates a PrefixProvider that returns the same prefixes regardless of context.
+     *
+     * @param prefixes The prefixes, the first is used where a single prefix is needed.
+     * @return The static prefix provider.
+     */
+    @NotNull
+    static PrefixProvider staticPrefixProvider(@NotNull Set<String> prefixes) {
+        Set<String> copy = Collections.unmodifiableSet(new LinkedHashSet<>(prefixes));
+        Optional<String> first = copy.stream().findFirst();
         return new PrefixProvider() {
             @NotNull
             @Override
             public Optional<String> getGuildPrefix(@NotNull Snowflake guildId, @NotNull Snowflake channelId) {
-                return Optional.of(prefix);
+                return first;
             }
 
             @NotNull
             @Override
             public Optional<String> getDmPrefix(@NotNull Snowflake authorId) {
-                return Optional.of(prefix);
+                return first;
+            }
+
+            @NotNull
+            @Override
+            public Set<String> getGuildPrefixes(@NotNull Snowflake guildId, @NotNull Snowflake channelId) {
+                return copy;
+            }
+
+            @NotNull
+            @Override
+            public Set<String> getDmPrefixes(@NotNull Snowflake authorId) {
+                return copy;
             }
         };
     }
@@ -0,0 +1,40 @@
+package harmony.command.interfaces;
+
+import harmony.command.CommandContext;
+import org.jetbrains.annotations.NotNull;
+import reactor.core.publisher.Mono;
+
+/**
+ * A {@link CommandArgumentMapper} whose mapping is a pure, instant computation. When all of a responder's arguments
+ * are handled by synchronous mappers, Harmony maps them in a plain loop without any reactive overhead. Mappers which
+ * need to make requests (i.e. to look up Discord entities) should implement {@link CommandArgumentMapper} directly.
+ * <p>
+ * <b>NOTE:</b> These implementations must have a no-arg constructor and be annotated with
+ * {@link com.austinv11.servicer.WireService} using {@link CommandArgumentMapper} as the service.
+ *
+ * @see CommandArgumentMapper
+ * @see SyncEnumArgumentMapper
+ * @see com.austinv11.servicer.WireService
+ * @see MappingResult
+ */
+public interface SyncCommandArgumentMapper<T> extends CommandArgumentMapper<T> {
+
+    /**
+     * Called to synchronously map a string to a java object. Implementations should not throw, failures are signalled
+     * through the returned result instead.
+     *
+     * @param context The context of the command invocation.
+     * @param token The string to map.
+     * @return The result of the mapping.
+     *
+     * @see MappingResult#failure()
+     */
+    @NotNull MappingResult<T> tryMap(@NotNull CommandContext context, @NotNull String token);
+
+    @NotNull
+    @Override
+    default Mono<T> map(@NotNull CommandContext context, @NotNull String token) throws ArgumentMappingException {
+        MappingResult<T> result = tryMap(context, token);
+        return result.isSuccess() ? Mono.just(result.get()) : Mono.error(new ArgumentMappingException());
+    }
+}
@@ -0,0 +1,34 @@
+package harmony.command.interfaces;
+
+import harmony.command.CommandContext;
+import org.jetbrains.annotations.NotNull;
+import reactor.core.publisher.Mono;
+
+/**
+ * Utility class for implementing a synchronous argument mapper for a custom enum class. Tokens are mapped to the
+ * constant with the same name, {@link #tryMap(CommandContext, String)} can be overridden to map them differently.
+ *
+ * @see SyncCommandArgumentMapper
+ * @see AbstractEnumArgumentMapper
+ * @see com.austinv11.servicer.WireService
+ */
+public abstract class SyncEnumArgumentMapper<T extends Enum<T>> extends AbstractEnumArgumentMapper<T>
+        implements SyncCommandArgumentMapper<T> {
+
+    @Override
+    public boolean canAccept(@NotNull String token) {
+        return !isDefault("tryMap", SyncEnumArgumentMapper.class) || constant(token) != null;
+    }
+
+    @NotNull
+    @Override
+    public MappingResult<T> tryMap(@NotNull CommandContext context, @NotNull String token) {
+        return MappingResult.ofNullable(constant(token));
+    }
+
+    @NotNull
+    @Override
+    public final Mono<T> map(@NotNull CommandContext context, @NotNull String token) throws ArgumentMappingException {
+        return SyncCommandArgumentMapper.super.map(context, token);
+    }
+}
@@ -0,0 +1,138 @@
+package harmony.command.util;
+
+import discord4j.common.util.Snowflake;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Non-throwing validation for common argument types. Each check accepts exactly the tokens that the corresponding JDK
+ * parser can parse without throwing (a conservative subset in the case of doubles), so tokens can be validated first
+ * and then parsed without any exception handling.
+ */
+public final class ArgumentParsers {
+
+    private static final String MAX_UNSIGNED_LONG = "18446744073709551615";
+
+    private ArgumentParsers() {}
+
+    /**
+     * Checks whether a token can be parsed with {@link Integer#parseInt(String)}.
+     */
+    public static boolean isInt(@NotNull String token) {
+        return isIntegral(token, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Checks whether a token can be parsed with {@link Long#parseLong(String)}.
+     */
+    public static boolean isLong(@NotNull String token) {
+        return isIntegral(token, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Checks whether a token can be parsed with {@link Double#parseDouble(String)}. Hexadecimal floating point literals
+     * are not supported.
+     */
+    public static boolean isDouble(@NotNull String token) {
+        int len = token.length();
+        int i = 0;
+        if (len > 0 && (token.charAt(0) == '-' || token.charAt(0) == '+'))
+            i++;
+
+        if (token.startsWith("NaN", i) || token.startsWith("Infinity", i))
+            return token.length() == i + (token.charAt(i) == 'N' ? 3 : 8);
+
+        int digits = 0;
+        while (i < len && isDigit(token.charAt(i))) { i++; digits++; }
+        if (i < len && token.charAt(i) == '.') {
+            i++;
+            while (i < len && isDigit(token.charAt(i))) { i++; digits++; }
+        }
+        if (digits == 0)
+            return false;
+
+        if (i < len && (token.charAt(i) == 'e' || token.charAt(i) == 'E')) {
+            i++;
+            if (i < len && (token.charAt(i) == '-' || token.charAt(i) == '+'))
+                i++;
+            int exponentDigits = 0;
+            while (i < len && isDigit(token.charAt(i))) { i++; exponentDigits++; }
+            if (exponentDigits == 0)
+                return false;
+        }
+
+        if (i < len && "fFdD".indexOf(token.charAt(i)) >= 0)
+            i++;
+
+        return i == len;
+    }
+
+    /**
+     * Checks whether a token is a boolean literal (true or false, ignoring case).
+     */
+    public static boolean isBoolean(@NotNull String token) {
+        return token.equalsIgnoreCase("true") || token.equalsIgnoreCase("false");
+    }
+
+    /**
+     * Checks whether a token can be parsed as a {@link Snowflake} (an unsigned 64-bit integer).
+     */
+    public static boolean isSnowflake(@NotNull String token) {
+        int len = token.length();
+        if (len == 0 || len > MAX_UNSIGNED_LONG.length())
+            return false;
+
+        for (int i = 0; i < len; i++) {
+            if (!isDigit(token.charAt(i)))
+                return false;
+        }
+
+        return len < MAX_UNSIGNED_LONG.length() || token.compareTo(MAX_UNSIGNED_LONG) <= 0;
+    }
+
+    /**
+     * Parses a {@link Snowflake} without throwing.
+     *
+     * @param token The token to parse.
+     * @return The snowflake or null if the token is not a valid snowflake.
+     */
+    @Nullable
+    public static Snowflake toSnowflake(@NotNull String token) {
+        return isSnowflake(token) ? Snowflake.of(token) : null;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIntegral(String token, long min, long max) {  // Mirrors Long.parseLong's overflow checks
+        int len = token.length();
+        if (len == 0)
+            return false;
+
+        int i = 0;
+        boolean negative = false;
+        char first = token.charAt(0);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (len == 1)
+                return false;
+            i++;
+        }
+
+        long limit = negative ? min : -max;
+        long multmin = limit / 10;
+        long result = 0;
+        for (; i < len; i++) {
+            char c = token.charAt(i);
+            if (!isDigit(c) || result < multmin)
+                return false;
+            result *= 10;
+            int digit = c - '0';
+            if (result < limit + digit)
+                return false;
+            result -= digit;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,18 @@
+package harmony.command.util;
+
+import org.jetbrains.annotations.NotNull;
+import reactor.core.publisher.Mono;
+
+/**
+ * A responder invocation whose arguments have already been mapped.
+ */
+@FunctionalInterface
+public interface CommandCall {
+
+    /**
+     * Invokes the responder.
+     *
+     * @return The responder's result, if any.
+     */
+    @NotNull Mono<?> call();
+}
@@ -0,0 +1,31 @@
+package harmony.command.util;
+
+import harmony.command.InvocableCommand;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * A set of commands built at compile time. An implementation is generated by the annotation processor for every
+ * compilation containing {@link harmony.command.annotations.Command} classes and is discovered with a
+ * {@link java.util.ServiceLoader}, so no reflection is needed to find or build commands.
+ *
+ * @see harmony.command.annotations.HarmonyAnnotationProcessor
+ */
+public interface CompiledCommands {
+
+    /**
+     * Builds the commands.
+     *
+     * @return The commands.
+     */
+    @NotNull List<InvocableCommand> commands();
+
+    /**
+     * Lists the command classes this builds, so that any other command classes can still be found by the fallback
+     * scan.
+     *
+     * @return The fully qualified names of the command classes.
+     */
+    @NotNull List<String> commandClasses();
+}
@@ -11,35 +11,43 @@ import harmony.command.CommandOptions
 import harmony.util.Feature
 
 /**
- * The class that handles everything. Instantiation automatically logs in.
+ * The class that handles everything. Instantiation with a token automatically logs in.
  *
- * @param token The bot token.
+ * @param client The Discord4J client, this must already be logged in.
+ * @param self The bot's user.
+ * @param owner The bot's owner's user.
  * @param commands The options for commands. If disabled no commands are handled.
- * @param clientHook A callback for decorating a [DiscordClient] before logging in.
- * @param gatewayHook A callback for decorating a [GatewayDiscordClient] just after logging in.
+ * @param initialPresence The status to use initially.
  *
  * @see CommandOptions
  */
-class Harmony @JvmOverloads constructor(token: String,
+class Harmony @JvmOverloads constructor(val client: GatewayDiscordClient,
+                                        val self: User,
+                                        val owner: User,
                                         val commands: Feature<CommandOptions> = Feature.enable(CommandOptions()),
-                                        clientHook: (DiscordClient) -> DiscordClient = { dc -> dc },
-                                        gatewayHook: (GatewayDiscordClient) -> GatewayDiscordClient = { gdc -> gdc },
                                         initialPresence: StatusUpdate = Presence.online()) {
 
     /**
-     * The Discord4J client.
+     * Logs in and creates the harmony instance.
+     *
+     * @param token The bot token.
+     * @param commands The options for commands. If disabled no commands are handled.
+     * @param clientHook A callback for decorating a [DiscordClient] before logging in.
+     * @param gatewayHook A callback for decorating a [GatewayDiscordClient] just after logging in.
+     * @param initialPresence The status to use initially.
      */
-    val client: GatewayDiscordClient
+    @JvmOverloads constructor(token: String,
+                              commands: Feature<CommandOptions> = Feature.enable(CommandOptions()),
+                              clientHook: (DiscordClient) -> DiscordClient = { dc -> dc },
+                              gatewayHook: (GatewayDiscordClient) -> GatewayDiscordClient = { gdc -> gdc },
+                              initialPresence: StatusUpdate = Presence.online())
+            : this(login(token, clientHook, gatewayHook, initialPresence), commands, initialPresence)
 
-    /**
-     * The bot's user.
-     */
-    val self: User
-
-    /**
-     * The bot's owner's user.
-     */
-    val owner: User
+    private constructor(client: GatewayDiscordClient,
+                        commands: Feature<CommandOptions>,
+                        initialPresence: StatusUpdate)
+            : this(client, client.self.block()!!, client.applicationInfo.flatMap { it.owner }.block()!!, commands,
+            initialPresence)
 
     /**
      * The status the bot is using.
@@ -51,26 +59,11 @@ class Harmony @JvmOverloads constructor(token: String,
             client.updatePresence(value).subscribe()
         }
 
-    internal val selfAsMention: String
-    internal val selfAsMentionWithNick: String
+    internal val selfAsMention: String = "<@${self.id.asString()}>"
+    internal val selfAsMentionWithNick: String = "<@!${self.id.asString()}>"
     internal val commandHandler: CommandHandler?
 
     init {
-        val dc = clientHook(DiscordClient
-                .builder(token)
-                .build())
-        client = dc.gateway()
-                .setSharding(ShardingStrategy.recommended())
-                .setInitialStatus { si ->
-                    status
-                }
-                .login()
-                .map(gatewayHook)
-                .block()!!
-        self = client.self.block()!!
-        selfAsMention = "<@${self.id.asString()}>"
-        selfAsMentionWithNick = "<@!${self.id.asString()}>"
-        owner = client.applicationInfo.flatMap { it.owner }.block()!!
         commandHandler = commands ifEnabled {
             it.commandHook(this, it).apply {
                 this.setup(client).subscribe()
@@ -95,4 +88,17 @@ class Harmony @JvmOverloads constructor(token: String,
     fun stop() {
         client.logout().block()
     }
-}
\ No newline at end of file
+}
+
+private fun login(token: String,
+                  clientHook: (DiscordClient) -> DiscordClient,
+                  gatewayHook: (GatewayDiscordClient) -> GatewayDiscordClient,
+                  initialPresence: StatusUpdate): GatewayDiscordClient = clientHook(DiscordClient
+        .builder(token)
+        .build())
+        .gateway()
+        .setSharding(ShardingStrategy.recommended())
+        .setInitialStatus { initialPresence }
+        .login()
+        .map(gatewayHook)
+        .block()!!
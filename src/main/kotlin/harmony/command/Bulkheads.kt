@@ -0,0 +1,221 @@
+package harmony.command
+
+import discord4j.common.util.Snowflake
+import reactor.core.publisher.Mono
+import reactor.core.publisher.MonoSink
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Limits on the number of commands that can be executing at once.
+ *
+ * @param global The maximum number of commands executing across the bot.
+ * @param perGuild The maximum number of commands executing in a single guild. Dms are only limited globally.
+ * @param perCommand The maximum number of executions of a single command.
+ * @param maxQueued The maximum number of invocations waiting for a free slot, when [policy] is
+ *      [SaturationPolicy.QUEUE]. Invocations past this are shed.
+ * @param policy What to do with invocations which exceed a limit.
+ */
+data class ConcurrencyLimits @JvmOverloads constructor(
+        val global: Int = Int.MAX_VALUE,
+        val perGuild: Int = Int.MAX_VALUE,
+        val perCommand: Int = Int.MAX_VALUE,
+        val maxQueued: Int = 256,
+        val policy: SaturationPolicy = SaturationPolicy.QUEUE
+) {
+
+    init {
+        require(global > 0 && perGuild > 0 && perCommand > 0) { "Limits must be positive" }
+        require(maxQueued >= 0) { "The queue size can't be negative" }
+    }
+}
+
+/**
+ * How to handle invocations which exceed a [ConcurrencyLimits] limit.
+ */
+enum class SaturationPolicy {
+
+    /**
+     * Wait for a slot to free up, up to the [ConcurrencyLimits.maxQueued] invocations.
+     */
+    QUEUE,
+
+    /**
+     * Silently drop the invocation.
+     */
+    SHED
+}
+
+/**
+ * Enforces [ConcurrencyLimits] on command executions, so a noisy guild or a slow command can't starve everyone else.
+ *
+ * Queued invocations are admitted in order whenever a slot they need frees up, an invocation blocked by one guild's
+ * limit never holds up invocations from other guilds.
+ *
+ * @param limits The limits to enforce.
+ */
+class Bulkheads(val limits: ConcurrencyLimits) {
+
+    private val lock = Any()
+    private var running = 0
+    private val guilds = HashMap<Long, Int>()
+    private val commands = IdentityHashMap<InvocableCommand, Int>()
+    private val waiting = ArrayDeque<Slot>()
+
+    private var admittedCount = 0L
+    private var queuedCount = 0L
+    private var shedCount = 0L
+
+    /**
+     * The number of commands currently executing.
+     */
+    val inFlight: Int
+        get() = synchronized(lock) { running }
+
+    /**
+     * The number of invocations currently waiting for a slot.
+     */
+    val queued: Int
+        get() = synchronized(lock) { waiting.size }
+
+    /**
+     * The total number of invocations which have been allowed to execute.
+     */
+    val admitted: Long
+        get() = synchronized(lock) { admittedCount }
+
+    /**
+     * The total number of invocations which had to wait for a slot because a limit was saturated.
+     */
+    val delayed: Long
+        get() = synchronized(lock) { queuedCount }
+
+    /**
+     * The total number of invocations which were dropped because a limit was saturated.
+     */
+    val shed: Long
+        get() = synchronized(lock) { shedCount }
+
+    /**
+     * Gets the number of commands currently executing in a guild.
+     *
+     * @param guildId The guild id.
+     * @return The number of commands.
+     */
+    fun inFlight(guildId: Snowflake): Int = synchronized(lock) { guilds[guildId.asLong()] ?: 0 }
+
+    /**
+     * Gets the number of executions of a command currently running.
+     *
+     * @param command The command.
+     * @return The number of executions.
+     */
+    fun inFlight(command: InvocableCommand): Int = synchronized(lock) { commands[command] ?: 0 }
+
+    /**
+     * Runs work once a slot is free.
+     *
+     * @param command The command being executed.
+     * @param guildId The guild the command is executed in, or null for dms.
+     * @param work The execution.
+     * @return A mono which subscribes to the work once admitted, or which is empty if it was shed.
+     */
+    fun <T> run(command: InvocableCommand, guildId: Long?, work: Mono<T>): Mono<T> =
+            Mono.create<Slot> { sink ->
+                val slot = Slot(command, guildId, sink)
+                sink.onCancel { cancel(slot) }
+                acquire(slot)
+            }
+                    .flatMap { slot ->
+                        if (slot.state.compareAndSet(GRANTED, STARTED))
+                            work.doFinally { release(slot) }
+                        else
+                            Mono.empty()
+                    }
+
+    private fun acquire(slot: Slot) {
+        val admitted = synchronized(lock) {
+            when {
+                slot.state.get() == DONE -> return
+                admit(slot) -> true
+                limits.policy == SaturationPolicy.QUEUE && waiting.size < limits.maxQueued -> {
+                    waiting.addLast(slot)
+                    queuedCount++
+                    false
+                }
+                else -> {
+                    shedCount++
+                    slot.state.set(DONE)
+                    false
+                }
+            }
+        }
+
+        if (admitted)
+            slot.sink.success(slot)
+        else if (slot.state.get() == DONE)
+            slot.sink.success()
+    }
+
+    private fun cancel(slot: Slot) {
+        synchronized(lock) {
+            if (slot.state.compareAndSet(QUEUED, DONE)) {
+                waiting.remove(slot)
+                return
+            }
+        }
+        // The slot was granted, but the work never started
+        if (slot.state.compareAndSet(GRANTED, DONE)) release(slot)
+    }
+
+    private fun release(slot: Slot) {
+        val granted = mutableListOf<Slot>()
+        synchronized(lock) {
+            running--
+            decrement(commands, slot.command)
+            if (slot.guildId != null) decrement(guilds, slot.guildId)
+
+            val iterator = waiting.iterator()
+            while (iterator.hasNext() && running < limits.global) {
+                val next = iterator.next()
+                if (admit(next)) {
+                    iterator.remove()
+                    granted.add(next)
+                }
+            }
+        }
+        granted.forEach { it.sink.success(it) }
+    }
+
+    /**
+     * Takes a slot if every limit has room, must be called while holding the lock.
+     */
+    private fun admit(slot: Slot): Boolean {
+        if (running >= limits.global
+                || (commands[slot.command] ?: 0) >= limits.perCommand
+                || (slot.guildId != null && (guilds[slot.guildId] ?: 0) >= limits.perGuild))
+            return false
+
+        running++
+        commands.merge(slot.command, 1, Int::plus)
+        if (slot.guildId != null) guilds.merge(slot.guildId, 1, Int::plus)
+        admittedCount++
+        slot.state.set(GRANTED)
+        return true
+    }
+
+    private fun <K> decrement(counts: MutableMap<K, Int>, key: K) {
+        counts.computeIfPresent(key) { _, count -> if (count > 1) count - 1 else null }
+    }
+
+    private class Slot(val command: InvocableCommand, val guildId: Long?, val sink: MonoSink<Slot>) {
+        val state = AtomicInteger(QUEUED)
+    }
+
+    private companion object {
+        const val QUEUED = 0
+        const val GRANTED = 1
+        const val STARTED = 2
+        const val DONE = 3
+    }
+}
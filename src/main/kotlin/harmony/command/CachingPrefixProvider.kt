@@ -0,0 +1,193 @@
+package harmony.command
+
+import discord4j.common.util.Snowflake
+import discord4j.core.event.domain.message.MessageCreateEvent
+import harmony.command.interfaces.AsyncPrefixProvider
+import harmony.command.interfaces.PrefixProvider
+import reactor.core.publisher.Mono
+import reactor.core.publisher.MonoProcessor
+import reactor.core.publisher.UnicastProcessor
+import java.time.Duration
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A [PrefixProvider] backed by an [AsyncPrefixProvider]. Prefixes are cached by guild (or dm author) for a time to
+ * live, so most messages are answered synchronously from memory. Missing prefixes are collected into batches and loaded
+ * together, the [HarmonyCommandHandler] waits for them without blocking.
+ *
+ * The cache is bounded, when it is full expired entries are evicted first and then arbitrary ones. If a load fails or
+ * takes longer than [loadTimeout], the messages waiting on it fall back to the expired prefixes if there are any, else
+ * to no prefixes.
+ *
+ * @param provider The provider to load prefixes from.
+ * @param ttl How long to cache a prefix for.
+ * @param maxSize The maximum number of guilds and dm authors each to cache prefixes for.
+ * @param maxBatchSize The maximum number of prefixes to load at once.
+ * @param batchWindow How long to wait for more misses before loading a batch.
+ * @param loadTimeout How long to wait for a batch to load.
+ */
+class CachingPrefixProvider @JvmOverloads constructor(
+        private val provider: AsyncPrefixProvider,
+        ttl: Duration = Duration.ofMinutes(10),
+        maxSize: Int = 100_000,
+        maxBatchSize: Int = 100,
+        batchWindow: Duration = Duration.ofMillis(10),
+        loadTimeout: Duration = Duration.ofSeconds(5)
+) : PrefixProvider {
+
+    private val guilds = PrefixTable(ttl.toNanos(), maxSize, maxBatchSize, batchWindow, loadTimeout) {
+        provider.getGuildPrefixes(it)
+    }
+    private val dms = PrefixTable(ttl.toNanos(), maxSize, maxBatchSize, batchWindow, loadTimeout) {
+        provider.getDmPrefixes(it)
+    }
+
+    /**
+     * Gets the first cached prefix of a guild, a prefix which isn't cached yet is treated as no prefix.
+     */
+    override fun getGuildPrefix(guildId: Snowflake, channelId: Snowflake): Optional<String> =
+            getGuildPrefixes(guildId, channelId).stream().findFirst()
+
+    /**
+     * Gets the first cached prefix of a dm, a prefix which isn't cached yet is treated as no prefix.
+     */
+    override fun getDmPrefix(authorId: Snowflake): Optional<String> = getDmPrefixes(authorId).stream().findFirst()
+
+    /**
+     * Gets the cached prefixes of a guild, prefixes which aren't cached yet are treated as no prefixes.
+     */
+    override fun getGuildPrefixes(guildId: Snowflake, channelId: Snowflake): Set<String> =
+            guilds.cached(guildId) ?: emptySet()
+
+    /**
+     * Gets the cached prefixes of a dm, prefixes which aren't cached yet are treated as no prefixes.
+     */
+    override fun getDmPrefixes(authorId: Snowflake): Set<String> = dms.cached(authorId) ?: emptySet()
+
+    /**
+     * Makes sure the prefixes needed for a message are cached.
+     *
+     * @param event The message event.
+     * @return Null if the prefixes are already cached, else a mono emitting the prefixes once they have been loaded.
+     */
+    fun prefetch(event: MessageCreateEvent): Mono<Set<String>>? = if (event.guildId.isPresent)
+        guilds.prefetch(event.guildId.get())
+    else
+        event.message.author.map { dms.prefetch(it.id) }.orElse(null)
+
+    /**
+     * Removes a guild's prefixes from the cache, so they are loaded again when next needed. Loads which are already in
+     * flight are not cached.
+     *
+     * @param guildId The guild id.
+     */
+    fun invalidateGuild(guildId: Snowflake) = guilds.invalidate(guildId)
+
+    /**
+     * Removes a dm's prefixes from the cache, so they are loaded again when next needed. Loads which are already in
+     * flight are not cached.
+     *
+     * @param authorId The dm's author's id.
+     */
+    fun invalidateDm(authorId: Snowflake) = dms.invalidate(authorId)
+
+    /**
+     * Removes all prefixes from the cache.
+     */
+    fun invalidateAll() {
+        guilds.invalidateAll()
+        dms.invalidateAll()
+    }
+
+    /**
+     * Cached prefixes keyed by snowflake, with misses loaded in batches.
+     *
+     * Each miss registers a pending load. A loaded value is only cached if its load is still the pending one, so an
+     * invalidation (which drops the pending load) fences off loads started before it.
+     */
+    private class PrefixTable(private val ttl: Long,
+                              private val maxSize: Int,
+                              maxBatchSize: Int,
+                              batchWindow: Duration,
+                              loadTimeout: Duration,
+                              private val load: (List<Snowflake>) -> Mono<Map<Snowflake, Set<String>>>) {
+
+        private val entries = ConcurrentHashMap<Long, Entry>()
+        private val pending = ConcurrentHashMap<Long, MonoProcessor<Set<String>>>()
+        private val misses = UnicastProcessor.create<Load>()
+        private val missSink = misses.sink()
+
+        init {
+            misses.bufferTimeout(maxBatchSize, batchWindow)
+                    .flatMap { loads ->
+                        Mono.defer { load(loads.map { it.id }) }
+                                .timeout(loadTimeout)
+                                .defaultIfEmpty(emptyMap())
+                                .doOnNext { prefixes -> complete(loads, prefixes) }
+                                .onErrorResume { complete(loads, null); Mono.empty() }
+                    }
+                    .subscribe()
+        }
+
+        fun cached(id: Snowflake): Set<String>? {
+            val entry = entries[id.asLong()] ?: return null
+            return if (entry.expiresAt - System.nanoTime() > 0) entry.prefixes else null
+        }
+
+        fun prefetch(id: Snowflake): Mono<Set<String>>? {
+            if (cached(id) != null) return null
+
+            val created = MonoProcessor.create<Set<String>>()
+            val existing = pending.putIfAbsent(id.asLong(), created)
+            if (existing != null) return existing
+
+            missSink.next(Load(id, created))
+            return created
+        }
+
+        fun invalidate(id: Snowflake) {
+            pending.remove(id.asLong())
+            entries.remove(id.asLong())
+        }
+
+        fun invalidateAll() {
+            pending.clear()
+            entries.clear()
+        }
+
+        /**
+         * Completes the loads of a batch, prefixes which failed to load (null) or whose load was invalidated are not
+         * cached. Failed loads fall back to the expired prefixes, if they haven't been evicted yet.
+         */
+        private fun complete(loads: List<Load>, prefixes: Map<Snowflake, Set<String>>?) {
+            if (prefixes != null && entries.size + loads.size > maxSize) evict(loads.size)
+
+            val expiresAt = System.nanoTime() + ttl
+            for (load in loads) {
+                val loaded = if (prefixes != null)
+                    prefixes[load.id]?.let { Collections.unmodifiableSet(LinkedHashSet(it)) } ?: emptySet()
+                else
+                    entries[load.id.asLong()]?.prefixes ?: emptySet()
+                if (pending.remove(load.id.asLong(), load.result) && prefixes != null)
+                    entries[load.id.asLong()] = Entry(loaded, expiresAt)
+                load.result.onNext(loaded)
+            }
+        }
+
+        private fun evict(needed: Int) {
+            val now = System.nanoTime()
+            entries.values.removeIf { it.expiresAt - now <= 0 }
+
+            val iterator = entries.keys.iterator()
+            while (entries.size + needed > maxSize && iterator.hasNext()) {
+                iterator.next()
+                iterator.remove()
+            }
+        }
+    }
+
+    private class Load(val id: Snowflake, val result: MonoProcessor<Set<String>>)
+
+    private class Entry(val prefixes: Set<String>, val expiresAt: Long)
+}
@@ -7,6 +7,9 @@ import discord4j.core.`object`.entity.User
 import discord4j.core.`object`.entity.channel.MessageChannel
 import discord4j.core.event.domain.message.MessageCreateEvent
 import harmony.Harmony
+import reactor.core.publisher.Mono
+import reactor.core.scheduler.Scheduler
+import java.util.*
 
 /**
  * A Holder for various information from an invocation of a command.
@@ -18,6 +21,7 @@ import harmony.Harmony
  * @param content The raw invocation of the command.
  * @param author The user that sent the command
  * @param client The Discord4J client instance.
+ * @param resolvedChannel The channel if it has already been resolved.
  */
 data class CommandContext(
         val harmony: Harmony,
@@ -25,11 +29,38 @@ data class CommandContext(
         val message: Message,
         val content: String = message.content,
         val author: User = message.author.get(),
-        val client: GatewayDiscordClient = harmony.client
+        val client: GatewayDiscordClient = harmony.client,
+        private val resolvedChannel: MessageChannel? = null
 ) {
     companion object {
 
+        /**
+         * The subscriber context key of the scheduler an isolated command is invoked on.
+         */
+        internal val ISOLATED_SCHEDULER = Any()
+
+        /**
+         * Builds a context without blocking. The guild and channel are resolved through Discord4J, which checks the
+         * gateway's cache before falling back to a REST request.
+         *
+         * @param harmony The harmony instance.
+         * @param event The event invoking the command.
+         * @return A mono emitting the context once the guild and channel are resolved.
+         */
+        @JvmStatic
+        fun create(harmony: Harmony, event: MessageCreateEvent): Mono<CommandContext> {
+            val guild: Mono<Optional<Guild>> = if (event.guildId.isPresent)
+                event.guild.map { Optional.of(it) }.defaultIfEmpty(Optional.empty())
+            else
+                Mono.just(Optional.empty())
+
+            return Mono.zip(guild, event.message.channel) { server, channel ->
+                CommandContext(harmony, server.orElse(null), event.message, resolvedChannel = channel)
+            }
+        }
+
         @JvmStatic
+        @Deprecated("This blocks the calling thread to resolve the guild", ReplaceWith("create(harmony, event)"))
         fun fromMessageCreateEvent(harmony: Harmony, event: MessageCreateEvent) = CommandContext(
                 harmony,
                 event.guild.blockOptional().orElse(null),
@@ -37,5 +68,13 @@ data class CommandContext(
         )
     }
 
-    val channel: MessageChannel by lazy { message.channel.block()!! }  // In most cases this wont make a REST request
-}
\ No newline at end of file
+    val channel: MessageChannel by lazy { resolvedChannel ?: message.channel.block()!! }  // Only blocks if the context was not built with create()
+}
+
+/**
+ * Moves the rest of an invocation onto the isolated command's scheduler, if it is isolated. Resolving the context or
+ * arguments may complete on a Discord4J thread, which an isolated command must not block.
+ */
+internal fun <T> Mono<T>.publishOnIsolated(): Mono<T> = Mono.subscriberContext().flatMap { context ->
+    context.getOrEmpty<Scheduler>(CommandContext.ISOLATED_SCHEDULER).map { publishOn(it) }.orElse(this)
+}
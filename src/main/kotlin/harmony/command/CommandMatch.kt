@@ -0,0 +1,68 @@
+package harmony.command
+
+import discord4j.core.event.domain.message.MessageCreateEvent
+
+/**
+ * The result of the pre-dispatch stage. This is only created for messages which start with a valid prefix (or mention)
+ * and is a lightweight view over the message's content, all positions index into [content].
+ *
+ * @param event The event that triggered the match.
+ * @param content The raw message content.
+ * @param nameStart The index the command name starts at.
+ * @param nameEnd The index the command name ends at (exclusive).
+ * @param argsStart The index the arguments start at, this is equal to the content's length if there are no arguments.
+ * @param command The command that was matched or null if the name does not correspond to a registered command.
+ */
+class CommandMatch internal constructor(
+        val event: MessageCreateEvent,
+        val content: String,
+        val nameStart: Int,
+        val nameEnd: Int,
+        val argsStart: Int,
+        val command: InvocableCommand?
+) {
+
+    /**
+     * The command name as provided by the user.
+     */
+    val commandName: String
+        get() = content.substring(nameStart, nameEnd)
+
+    /**
+     * The raw argument string.
+     */
+    val args: String
+        get() = content.substring(argsStart)
+
+    /**
+     * Creates a copy of this match with a different resolved command (i.e. after a typo correction).
+     *
+     * @param command The new command.
+     * @return The new match.
+     */
+    internal fun withCommand(command: InvocableCommand) = CommandMatch(event, content, nameStart, nameEnd, argsStart,
+            command)
+
+    companion object {
+
+        /**
+         * Finds the first index at or after [from] which is not whitespace.
+         */
+        @JvmStatic
+        internal fun skipWhitespace(content: String, from: Int): Int {
+            var i = from
+            while (i < content.length && Character.isWhitespace(content[i])) i++
+            return i
+        }
+
+        /**
+         * Finds the first index at or after [from] which is whitespace.
+         */
+        @JvmStatic
+        internal fun findWhitespace(content: String, from: Int): Int {
+            var i = from
+            while (i < content.length && !Character.isWhitespace(content[i])) i++
+            return i
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package harmony.command
 
+import discord4j.common.util.Snowflake
 import discord4j.core.`object`.reaction.ReactionEmoji
 import discord4j.core.event.domain.message.MessageCreateEvent
 import harmony.Harmony
 import harmony.command.interfaces.ArgumentMappingException
+import harmony.command.interfaces.AsyncPrefixProvider
 import harmony.command.interfaces.CommandErrorSignal
 import harmony.command.interfaces.PrefixProvider
 import harmony.command.interfaces.TypoChecker
@@ -15,7 +17,8 @@ internal val ERROR_REACTION = ReactionEmoji.unicode(ERROR_EMOJI)
 /**
  * Various options that can effect how Harmony handles commands.
  *
- * @param prefix The command prefix provider to use. By default there is no prefix.
+ * @param prefix The command prefix provider to use. By default there is no prefix. Wrap an [AsyncPrefixProvider] in a
+ *      [CachingPrefixProvider] to load prefixes asynchronously.
  * @param mentionAsPrefix Whether to allow mentions of the bot to invoke commands. This is true by default.
  * @param commandHook This is called to create a [CommandHandler]. It uses [HarmonyCommandHandler] by default.
  * @param commandErrorSignalHandler This is called to handle user-friendly errors. By default, it messages the user with
@@ -24,12 +27,27 @@ internal val ERROR_REACTION = ReactionEmoji.unicode(ERROR_EMOJI)
  *      to the console.
  * @param typoChecking An optional feature that allows for typo checking if a user provides an unrecognized command.
  *      By default, it is enabled using the [JaroWinklerTypoChecker].
+ * @param userRateLimit An optional limit on how often each user can invoke any command, on top of the cooldowns of
+ *      individual commands. By default, it is disabled.
+ * @param throttlePolicy How to respond to invocations over a user's rate limit or a command's cooldown. By default, one
+ *      notice is sent to the user every few seconds.
+ * @param concurrencyLimits Optional limits on the number of commands executing at once, globally, per guild and per
+ *      command. By default, it is disabled.
+ * @param dispatchMode How to order command executions. By default, commands are executed concurrently without any
+ *      ordering guarantees.
+ * @param dispatchLanes The number of lanes to use with [DispatchMode.ORDERED_PER_CHANNEL]. This is the number of
+ *      processors by default.
  *
  * @see PrefixProvider
+ * @see CachingPrefixProvider
  * @see CommandHandler
  * @see CommandErrorSignal
  * @see TypoChecker
  * @see JaroWinklerTypoChecker
+ * @see RateLimit
+ * @see ThrottlePolicy
+ * @see ConcurrencyLimits
+ * @see DispatchMode
  * @see Feature
  */
 data class CommandOptions @JvmOverloads constructor(
@@ -51,5 +69,51 @@ data class CommandOptions @JvmOverloads constructor(
         }
         null
     },
-        val typoChecking: Feature<TypoChecker> = Feature.enable(JaroWinklerTypoChecker())
-)
\ No newline at end of file
+        val typoChecking: Feature<TypoChecker> = Feature.enable(JaroWinklerTypoChecker()),
+        val userRateLimit: Feature<RateLimit> = Feature.disable(),
+        val throttlePolicy: ThrottlePolicy = ThrottlePolicy.NOTIFY,
+        val concurrencyLimits: Feature<ConcurrencyLimits> = Feature.disable(),
+        val dispatchMode: DispatchMode = DispatchMode.CONCURRENT,
+        val dispatchLanes: Int = Runtime.getRuntime().availableProcessors()
+) {
+
+    init {
+        require(dispatchLanes > 0) { "There must be at least one dispatch lane" }
+    }
+
+    /**
+     * Gets the lane a channel's commands are dispatched on with [DispatchMode.ORDERED_PER_CHANNEL]. Snowflakes are
+     * mixed first since their low bits (worker, process and increment) are nearly constant, only the timestamp in the
+     * high bits varies between channels.
+     *
+     * @param channelId The channel id.
+     * @return The lane, from 0 until [dispatchLanes].
+     */
+    fun laneOf(channelId: Snowflake): Int =
+            Math.floorMod((channelId.asLong() * -7046029254386353131L) ushr 32, dispatchLanes.toLong()).toInt()
+}
+
+/**
+ * How the [HarmonyCommandHandler] orders command executions.
+ */
+enum class DispatchMode {
+
+    /**
+     * Messages are handled concurrently as they arrive, so commands may execute in any order.
+     */
+    CONCURRENT,
+
+    /**
+     * Channels are hashed onto a fixed set of lanes, each handling its messages one at a time on its own thread.
+     * Commands in a channel execute in the order they were sent, which is useful for stateful commands such as queues
+     * and games, while different channels are handled in parallel.
+     *
+     * Messages are matched against the prefixes before they are assigned a lane, so only commands enter the lanes.
+     * Replies are sent outside of the lanes, as are typo suggestions waiting for the user to confirm them.
+     *
+     * A slow command holds up the other channels in its lane until it completes, as does an execution queued by the
+     * [ConcurrencyLimits], so prefer [SaturationPolicy.SHED] with this mode. Each lane buffers a small number of
+     * waiting commands, once a lane's buffer is full no further commands are dispatched to any lane until it drains.
+     */
+    ORDERED_PER_CHANNEL
+}
\ No newline at end of file
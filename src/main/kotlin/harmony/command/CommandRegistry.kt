@@ -0,0 +1,177 @@
+package harmony.command
+
+import discord4j.common.util.Snowflake
+import java.util.*
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * A lock-free registry of commands. Every modification publishes a new immutable snapshot, so lookups on the dispatch
+ * path never block on or race with registrations.
+ *
+ * Lookups are case-insensitive. Names are case-folded once at registration time and stored in an open addressing hash
+ * table, so a lookup can be done directly against a region of a message without allocating.
+ *
+ * Server specific commands are given ordinals at registration time, and each guild is mapped to the set of ordinals
+ * enabled in it. Checking whether a command is visible in a guild is then a single bit test.
+ */
+class CommandRegistry {
+
+    private val snapshot = AtomicReference(Snapshot.EMPTY)
+
+    /**
+     * The version of the registry. This is incremented every time the registry changes, so it can be used to cheaply
+     * invalidate caches derived from the registered commands.
+     */
+    val version: Long
+        get() = snapshot.get().version
+
+    /**
+     * An immutable view of the case-folded command names (including aliases) -> implementations at this point in time.
+     */
+    val commands: Map<String, InvocableCommand>
+        get() = snapshot.get().commands
+
+    /**
+     * Registers a command under its name and all of its aliases, replacing any existing mappings.
+     *
+     * @param command The command to register.
+     */
+    fun register(command: InvocableCommand) {
+        while (true) {
+            val curr = snapshot.get()
+            val next = LinkedHashMap(curr.commands)
+            next[fold(command.name)] = command
+            command.aliases?.forEach { next[fold(it)] = command }
+
+            var ordinals = curr.ordinals
+            var guilds = curr.guilds
+            val servers = command.servers
+            if (servers != null && command !in ordinals) {
+                val ordinal = ordinals.size
+                ordinals = IdentityHashMap(ordinals).apply { put(command, ordinal) }
+                guilds = HashMap(guilds)
+                for (server in servers) {
+                    val enabled = guilds[server.asLong()]?.clone() as BitSet? ?: BitSet()
+                    enabled.set(ordinal)
+                    guilds[server.asLong()] = enabled
+                }
+            }
+
+            if (snapshot.compareAndSet(curr, Snapshot(curr.version + 1, next, ordinals, guilds)))
+                return
+        }
+    }
+
+    /**
+     * Looks up a command by name, ignoring case.
+     *
+     * @param name The command name or alias.
+     * @return The command if found, else null.
+     */
+    operator fun get(name: String): InvocableCommand? = find(name, 0, name.length)
+
+    /**
+     * Looks up a command by a region of a string, ignoring case. This does not allocate.
+     *
+     * @param content The string containing the name.
+     * @param start The start of the name (inclusive).
+     * @param end The end of the name (exclusive).
+     * @return The command if found, else null.
+     */
+    fun find(content: CharSequence, start: Int, end: Int): InvocableCommand? = snapshot.get().find(content, start, end)
+
+    /**
+     * Checks whether a command can be used in a guild. Commands which aren't server specific can be used anywhere,
+     * server specific commands can't be used in DMs.
+     *
+     * @param command The command.
+     * @param guildId The guild, or null for DMs.
+     * @return True if the command is visible.
+     */
+    fun isVisible(command: InvocableCommand, guildId: Snowflake?): Boolean {
+        val servers = command.servers ?: return true
+        if (guildId == null) return false
+
+        val snapshot = snapshot.get()
+        val ordinal = snapshot.ordinals[command] ?: return guildId in servers  // Not registered here
+        return snapshot.guilds[guildId.asLong()]?.get(ordinal) == true
+    }
+
+    /**
+     * Checks whether any server specific commands are enabled in a guild.
+     *
+     * @param guildId The guild.
+     * @return True if the guild has server specific commands.
+     */
+    fun hasServerSpecificCommands(guildId: Snowflake): Boolean = guildId.asLong() in snapshot.get().guilds
+
+    /**
+     * @param ordinals The ordinals of server specific commands.
+     * @param guilds The guild ids -> the ordinals of the server specific commands enabled in them.
+     */
+    private class Snapshot(val version: Long,
+                           map: Map<String, InvocableCommand>,
+                           val ordinals: Map<InvocableCommand, Int>,
+                           val guilds: Map<Long, BitSet>) {
+
+        val commands: Map<String, InvocableCommand> = Collections.unmodifiableMap(map)
+
+        private val mask: Int
+        private val keys: Array<String?>
+        private val values: Array<InvocableCommand?>
+
+        init {
+            var size = 2
+            while (size < map.size * 2) size = size shl 1
+            mask = size - 1
+            keys = arrayOfNulls(size)
+            values = arrayOfNulls(size)
+
+            for ((key, value) in map) {
+                var i = hash(key, 0, key.length) and mask
+                while (keys[i] != null) i = (i + 1) and mask
+                keys[i] = key
+                values[i] = value
+            }
+        }
+
+        fun find(content: CharSequence, start: Int, end: Int): InvocableCommand? {
+            var i = hash(content, start, end) and mask
+            while (true) {
+                val key = keys[i] ?: return null
+                if (matches(key, content, start, end)) return values[i]
+                i = (i + 1) and mask
+            }
+        }
+
+        companion object {
+            val EMPTY = Snapshot(0, emptyMap(), emptyMap(), emptyMap())
+        }
+    }
+
+    internal companion object {
+
+        /**
+         * Case-folds a command name the way the registry does, independent of the default locale.
+         */
+        fun fold(name: String): String {
+            val chars = CharArray(name.length)
+            for (i in name.indices) chars[i] = Character.toLowerCase(name[i])
+            return String(chars)
+        }
+
+        private fun hash(content: CharSequence, start: Int, end: Int): Int {
+            var h = 0
+            for (i in start until end) h = 31 * h + Character.toLowerCase(content[i]).toInt()
+            return h xor (h ushr 16)
+        }
+
+        private fun matches(folded: String, content: CharSequence, start: Int, end: Int): Boolean {
+            if (folded.length != end - start) return false
+            for (i in folded.indices) {
+                if (folded[i] != Character.toLowerCase(content[start + i])) return false
+            }
+            return true
+        }
+    }
+}
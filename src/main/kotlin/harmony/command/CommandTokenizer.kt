@@ -2,10 +2,10 @@ package harmony.command
 
 import harmony.command.interfaces.ArgumentMappingException
 import harmony.command.interfaces.CommandArgumentMapper
+import harmony.command.interfaces.MappingResult
+import harmony.command.interfaces.SyncCommandArgumentMapper
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
-import java.lang.StringBuilder
-import java.util.*
 
 /**
  * Takes a string -> java arguments for given mappers.
@@ -16,109 +16,100 @@ class CommandTokenizer(private val paramMappers: Array<CommandArgumentMapper<*>>
 ) {
 
     companion object {
-        @JvmStatic
-        internal fun tokenize(argString: String): Deque<String> {
-            if (argString.isBlank()) return java.util.ArrayDeque()
-
-            val tokenStack = java.util.ArrayDeque<String>()  // Kotlin stdlib has an experimental impl
-            var currToken = StringBuilder()
-            var lastQuote: Int? = null
-            var lastQuoteChar: Char? = null
-            var wasLastEscape: Boolean = false
-            var i = 0
-
-            // FIXME: right now, it does not gracefully retry parsing if there is no closing quote
-            while (i < argString.length) {
-                val char = argString[i]
-
-                if (char == ' ' && lastQuote != null) {
-                    if (currToken.isNotEmpty() && !wasLastEscape) {
-                        tokenStack.add(currToken.toString())
-                        currToken = StringBuilder()
-                    } else if (wasLastEscape) {
-                        currToken.append(char)
-                        wasLastEscape = false
-                    }
-                } else if (char == ' ' && !wasLastEscape) {
-                    tokenStack.add(currToken.toString())
-                    currToken = StringBuilder()
-                } else if (char == '"' || char == '\'') {
-                    if (lastQuote != null && lastQuoteChar == char) { // End quote
-                        if (!wasLastEscape) {
-                            tokenStack.add(currToken.toString())
-                            lastQuote = null
-                            lastQuoteChar = null
-                        } else {
-                            currToken.append(char)
-                            wasLastEscape = false
-                        }
-                    } else if (lastQuote != null && lastQuoteChar != char) { // Continue quote
-                        currToken.append(char)
-                    } else if (lastQuote == null) { // Start quote
-                        if (!wasLastEscape) {
-                            lastQuote = i
-                            lastQuoteChar = char
-                        } else {
-                            currToken.append(char)
-                            wasLastEscape = false
-                        }
-                    }
-                } else if (char == '\\') {
-                    if (wasLastEscape) {
-                        currToken.append(char)
-                        wasLastEscape = false
-                    } else {
-                        wasLastEscape = true
-                    }
-                } else {
-                    if (!wasLastEscape) {
-                        currToken.append(char)
-                    } else {
-                        currToken.append('\\').append(char)
-                    }
-                }
-
-                i++
-            }
-
-            if (currToken.isNotEmpty()) {
-                tokenStack.add(currToken.toString())
-            }
 
-            return tokenStack
-        }
+        /**
+         * Splits arguments into whitespace separated tokens. Tokens can be grouped with single or double quotes, and
+         * quotes, whitespace and backslashes can be escaped with a backslash. This does not scan anything up front,
+         * tokens are found as they are requested.
+         *
+         * @param argString The string containing the arguments.
+         * @param from The offset the arguments start at.
+         * @return The tokens.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun tokenize(argString: String, from: Int = 0): Tokens = Tokens(argString, from)
     }
 
-    fun map(context: CommandContext, toks: Deque<String>): Mono<List<*>> {
-        // Collapse trailing string as final argument
-        if (toks.size >= nonContextParamCount && String::class.java.isAssignableFrom(paramMappers.last().accepts())) {
-            val collapsed = mutableListOf<String>()
-            while (toks.size >= nonContextParamCount)  {
-                collapsed.add(toks.removeLast())
-            }
-            toks.add(collapsed.reversed().joinToString(" "))
-        }
+    /**
+     * Whether every argument is handled by a [SyncCommandArgumentMapper].
+     */
+    val isSynchronous: Boolean = paramMappers.all { it is SyncCommandArgumentMapper<*> }
 
+    fun map(context: CommandContext, toks: Tokens): Mono<List<*>> {
+        // Trailing strings are collapsed ahead of time by the DispatchTable
         if (toks.size != nonContextParamCount) {
             return Mono.error(ArgumentMappingException())
         }
 
-        val args = mutableListOf<Pair<CommandArgumentMapper<*>, String>>()
+        if (isSynchronous) {
+            val args = mapSync(context, toks) ?: return Mono.error(ArgumentMappingException())
+            return Mono.just(args.asList())
+        }
+
+        val args = arrayOfNulls<Any?>(paramMappers.size)
+        val asyncTokens = arrayOfNulls<String>(paramMappers.size)
 
         try {
-            for (mapper in paramMappers) {
-                if (mapper.accepts() == CommandContext::class.java) {
-                    args.add(mapper to toks.peek())
-                } else {
-                    args.add(mapper to toks.pop())
-                }
+            var token = 0
+            for ((i, mapper) in paramMappers.withIndex()) {
+                if (mapper.accepts() == CommandContext::class.java)
+                    args[i] = context
+                else if (mapper is SyncCommandArgumentMapper<*>)
+                    args[i] = mapper.tryMap(context, toks[token++]).orNull() ?: return Mono.error(ArgumentMappingException())
+                else
+                    asyncTokens[i] = toks[token++]
             }
 
-            return Flux.fromIterable(args)
-                    .flatMapSequential { it.first.map(context, it.second) }
-                    .collectList()
+            return Flux.range(0, paramMappers.size)
+                    .filter { asyncTokens[it] != null }
+                    .flatMapSequential { i -> paramMappers[i].map(context, asyncTokens[i]!!).doOnNext { args[i] = it } }
+                    .then(Mono.fromCallable<List<*>> {
+                        if (args.any { it == null }) throw ArgumentMappingException()
+                        args.asList()
+                    })
+                    .onErrorMap { ArgumentMappingException() }
         } catch (e: Throwable) {
             return Mono.error(ArgumentMappingException())
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Maps a single token with the mapper of a synchronous argument. This is used by the generated command wrappers,
+     * which map each argument into a typed local.
+     *
+     * @param index The index of the argument.
+     * @param context The command context.
+     * @param token The token to map.
+     * @return The mapping result.
+     */
+    fun <T> tryMap(index: Int, context: CommandContext, token: String): MappingResult<T> {
+        @Suppress("UNCHECKED_CAST")
+        val mapper = paramMappers[index] as? SyncCommandArgumentMapper<T> ?: return MappingResult.failure()
+        return try {
+            mapper.tryMap(context, token)
+        } catch (e: Exception) {
+            MappingResult.failure()
+        }
+    }
+
+    /**
+     * Maps tokens to arguments without any reactive operators or exceptions. This requires every mapper to be
+     * synchronous.
+     *
+     * @param context The command context.
+     * @param toks The tokens, these must already match the number of (non-context) arguments.
+     * @return The mapped arguments or null if a token cannot be mapped.
+     */
+    fun mapSync(context: CommandContext, toks: Tokens): Array<Any?>? {
+        val args = arrayOfNulls<Any?>(paramMappers.size)
+        var token = 0
+        for ((i, mapper) in paramMappers.withIndex()) {
+            args[i] = if (mapper.accepts() == CommandContext::class.java)
+                context
+            else
+                (mapper as SyncCommandArgumentMapper<*>).tryMap(context, toks[token++]).orNull() ?: return null
+        }
+        return args
+    }
+}
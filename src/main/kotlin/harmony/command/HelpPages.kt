@@ -0,0 +1,183 @@
+package harmony.command
+
+import discord4j.common.util.Snowflake
+import discord4j.rest.util.Color
+import harmony.command.annotations.ChannelType
+import harmony.util.Embed
+import harmony.util.EmbedField
+import harmony.util.embed
+import java.util.concurrent.ConcurrentHashMap
+
+private const val INFO_ICON = "https://www.thedataschool.co.uk/wp-content/uploads/2019/02/45188-200.png"
+
+/**
+ * The number of commands listed per page.
+ */
+private const val COMMANDS_PER_PAGE = 6
+
+/**
+ * Renders the help command's embeds. The parts of an embed which don't depend on the invocation are rendered once and
+ * cached until the registry changes, callers fill in the footer and timestamp.
+ *
+ * Command lists are cached per visibility class: whether the user is the bot owner, and the guild if it has
+ * server specific commands.
+ *
+ * @param commandHandler The command handler to document.
+ */
+internal class HelpPages(private val commandHandler: HarmonyCommandHandler) {
+
+    @Volatile
+    private var cache = Cache(-1, emptyMap())
+
+    /**
+     * Gets the pages listing the commands visible to a user.
+     *
+     * @param isOwner Whether the user is the bot owner.
+     * @param guildId The guild the user is in, or null for DMs.
+     * @return The pages.
+     */
+    fun list(isOwner: Boolean, guildId: Snowflake?): List<Embed> {
+        val cache = current()
+        val visibility = Visibility(isOwner, guildId?.takeIf { commandHandler.registry.hasServerSpecificCommands(it) })
+        return cache.lists.computeIfAbsent(visibility) { renderList(cache.commands, it) }
+    }
+
+    /**
+     * Gets the page documenting a command.
+     *
+     * @param name The command name or alias.
+     * @param isOwner Whether the user is the bot owner.
+     * @param guildId The guild the user is in, or null for DMs.
+     * @return The page, or null if there is no such command visible to the user.
+     */
+    fun command(name: String, isOwner: Boolean, guildId: Snowflake?): Embed? {
+        val cache = current()
+        val key = CommandRegistry.fold(name)
+        val command = cache.commands[key]?.takeIf { isVisible(it, Visibility(isOwner, guildId)) } ?: return null
+        return cache.pages.computeIfAbsent(key) { renderCommand(key, command) }
+    }
+
+    /**
+     * Gets the page documenting a command variant.
+     *
+     * @param name The command name or alias.
+     * @param selector The 1-based index of the variant, clamped to the variants available.
+     * @param isOwner Whether the user is the bot owner.
+     * @param guildId The guild the user is in, or null for DMs.
+     * @return The page, or null if there is no such command visible to the user.
+     */
+    fun variant(name: String, selector: Int, isOwner: Boolean, guildId: Snowflake?): Embed? {
+        val cache = current()
+        val key = CommandRegistry.fold(name)
+        val command = cache.commands[key]?.takeIf { isVisible(it, Visibility(isOwner, guildId)) } ?: return null
+        val index = (selector - 1).coerceIn(0, command.commandVariants.size - 1)
+        return cache.pages.computeIfAbsent("$key#$index") { renderVariant(key, command, command.commandVariants[index]) }
+    }
+
+    private fun current(): Cache {
+        val registry = commandHandler.registry
+        val version = registry.version
+        val cache = this.cache
+        if (cache.version == version) return cache
+
+        return Cache(version, registry.commands).also { this.cache = it }
+    }
+
+    private fun header(title: String) = embed {
+        author = "Help"
+        authorIconUrl = commandHandler.harmony.self.avatarUrl
+
+        this.title = title
+
+        thumbnailUrl = INFO_ICON
+
+        color = Color.CYAN
+    }
+
+    private fun isVisible(command: InvocableCommand, visibility: Visibility) =
+            (!command.botOwnerOnly || visibility.isOwner) && commandHandler.registry.isVisible(command, visibility.guildId)
+
+    private fun renderList(commands: Map<String, InvocableCommand>, visibility: Visibility): List<Embed> {
+        val names = commands.filter { isVisible(it.value, visibility) }.map { it.key }.sorted()
+        val fields = names
+            .map { EmbedField("**$it**", commands[it]!!.description?.take(1024) ?: "", true) }
+            .windowed(COMMANDS_PER_PAGE, COMMANDS_PER_PAGE, partialWindows = true)
+
+        return fields.mapIndexed { index, page ->
+            header("Command List").apply {
+                description = "There are a total of ${names.size} commands loaded. Use the reactions below to flip " +
+                        "between pages. Provide the help command a command name as an argument to get more information."
+
+                for (field in page) {
+                    addField(field)
+                }
+
+                footer = "Page ${index + 1} of ${fields.size}"
+            }
+        }
+    }
+
+    private fun renderCommand(commandName: String, command: InvocableCommand) = header("Help page for: `$commandName`").apply {
+        if (command.description != null) {
+            description = command.description
+        }
+
+        if (command.channelType != ChannelType.ALL) {
+            val msg = "This command can only be executed in ${command.channelType.name} channels."
+            if (description == null) {
+                description = msg
+            } else {
+                description = "$description\n$msg"
+            }
+        }
+
+        if (command.aliases != null)
+            addField(EmbedField("Aliases:", (arrayOf(command.name) + command.aliases).joinToString(", "), false))
+
+        if (command.requiresPermissions != null)
+            addField(EmbedField("Requires Permissions:",
+                command.requiresPermissions.asEnumSet().joinToString(", ") { it.name }, false))
+
+        for ((index, variant) in command.commandVariants.withIndex()) {
+            addField(EmbedField(
+                "${index+1}. $commandName ${variant.args.map { "`\$${it.name}`" }.joinToString(" ")}",
+                variant.description?.take(1024) ?: "",
+                true
+            ))
+        }
+    }
+
+    private fun renderVariant(commandName: String, command: InvocableCommand, variant: CommandVariantInfo) =
+            header("Help page for: `$commandName`").apply {
+        if (variant.description != null)
+            description = variant.description
+        else if (command.description != null)
+            description = command.description
+
+        description = if (description == null) "" else (description + "\n\n")
+
+        if (variant.args.isNotEmpty())
+            description = description + "__**Arguments**__"
+
+        for (arg in variant.args) {
+            val argTypeDesc: String = if (arg.type.isEnum) {
+                arg.type.enumConstants.joinToString("|") { (it as Enum<*>).name }
+            } else {
+                arg.type.simpleName.capitalize()
+            }
+            addField(EmbedField("${arg.name}: $argTypeDesc", arg.description ?: "", false))
+        }
+    }
+
+    private data class Visibility(val isOwner: Boolean, val guildId: Snowflake?)
+
+    /**
+     * The rendered pages for a version of the registry.
+     */
+    private class Cache(val version: Long, val commands: Map<String, InvocableCommand>) {
+
+        val lists = ConcurrentHashMap<Visibility, List<Embed>>()
+
+        val pages = ConcurrentHashMap<String, Embed>()
+    }
+}
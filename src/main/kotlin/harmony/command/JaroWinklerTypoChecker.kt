@@ -1,15 +1,15 @@
 package harmony.command
 
+import discord4j.common.util.Snowflake
 import discord4j.core.`object`.reaction.ReactionEmoji
 import discord4j.core.event.domain.message.MessageCreateEvent
-import discord4j.core.event.domain.message.ReactionAddEvent
 import harmony.Harmony
 import harmony.command.interfaces.TypoChecker
+import harmony.util.listenForReacts
 import info.debatty.java.stringsimilarity.JaroWinkler
-import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
 import java.time.Duration
-import java.util.concurrent.TimeoutException
+import java.util.*
 
 const val MIN_SIMILARITY = 0.6
 
@@ -18,33 +18,128 @@ val NO_REACTION = ReactionEmoji.unicode("\uD83C\uDDF3")
 
 val TIMEOUT = Duration.ofMinutes(1)
 
+/**
+ * The maximum number of recently mistyped command names whose suggestions are remembered.
+ */
+private const val MAX_CACHED_MISSES = 256
+
 /**
  * The default typo checker. Built on the JaroWinkler algorithm. If a typo is detected, it will prompt the user to
  * confirm the suggested command. It will wait for 1 minute for a response.
  *
+ * Candidates are looked up in a [TypoIndex] of the registered command names, so only names within
+ * [MAX_TYPO_DISTANCE] edits are scored. The index is brought up to date with the [CommandRegistry] on the first miss
+ * after a command is registered, and the suggestions for recent misses are cached until then. Only commands visible in
+ * the user's guild are suggested, so suggestions are cached per guild for guilds with server specific commands.
+ *
  * @see TypoChecker
  */
 class JaroWinklerTypoChecker : TypoChecker {
 
     val jaroWinkler = JaroWinkler()
 
-    override fun checkForTypos(harmony: Harmony, context: MessageCreateEvent, commandName: String): Mono<String> {
-        val suggestion = harmony.commandHandler?.commands?.keys
-            ?.map { it to jaroWinkler.similarity(commandName, it) }?.maxBy { it.second }
+    @Volatile
+    private var suggestions: Suggestions? = null
+
+    /**
+     * Finds the most similar command name by scoring every name.
+     *
+     * @param commandNames The available command names.
+     * @param commandName The command name provided by the user.
+     * @return The most similar command name and its similarity, or null if there are no command names.
+     */
+    fun suggest(commandNames: Collection<String>, commandName: String): Pair<String, Double>? = commandNames
+            .map { it to jaroWinkler.similarity(commandName, it) }.maxBy { it.second }
+
+    /**
+     * Finds the most similar registered command name, using the index.
+     *
+     * @param registry The registry holding the available commands.
+     * @param commandName The command name provided by the user.
+     * @param guildId The guild the user is in, or null for DMs. Only commands visible there are suggested.
+     * @return The most similar command name with a similarity of at least [MIN_SIMILARITY], or null if there is none.
+     */
+    @JvmOverloads
+    fun suggest(registry: CommandRegistry, commandName: String, guildId: Snowflake? = null): String? {
+        val suggestions = suggestionsFor(registry)
+        val query = CommandRegistry.fold(commandName)
+        val key = Miss(guildId?.takeIf { registry.hasServerSpecificCommands(it) }?.asLong(), query)
+
+        val cached = suggestions.misses[key]
+        if (cached != null) return if (cached === NO_SUGGESTION) null else cached
+
+        var best: String? = null
+        var bestSimilarity = MIN_SIMILARITY
+        suggestions.index.search(query) { name, _ ->
+            val similarity = jaroWinkler.similarity(query, name)
+            if ((similarity > bestSimilarity || (best == null && similarity == bestSimilarity))
+                    && registry[name]?.let { registry.isVisible(it, guildId) } == true) {
+                best = name
+                bestSimilarity = similarity
+            }
+        }
+
+        suggestions.misses[key] = best ?: NO_SUGGESTION
+        return best
+    }
+
+    private fun suggestionsFor(registry: CommandRegistry): Suggestions {
+        val curr = suggestions
+        if (curr != null && curr.registry === registry && curr.version == registry.version) return curr
 
-        if (suggestion == null || suggestion.second < MIN_SIMILARITY)
-            return Mono.empty()
+        synchronized(this) {
+            val latest = suggestions
+            if (latest != null && latest.registry === registry && latest.version == registry.version) return latest
+
+            // Names are never removed from a registry, so an existing index only needs the new ones
+            val index = if (latest != null && latest.registry === registry) latest.index else TypoIndex()
+            val version = registry.version
+            registry.commands.keys.forEach { index.add(it) }
+            return Suggestions(registry, version, index).also { suggestions = it }
+        }
+    }
+
+    override fun checkForTypos(harmony: Harmony, context: MessageCreateEvent, commandName: String): Mono<String> {
+        val handler = harmony.commandHandler ?: return Mono.empty()
+        val suggestion = (if (handler is HarmonyCommandHandler)
+            suggest(handler.registry, commandName, context.guildId.orElse(null))
+        else  // Custom handlers don't have a registry to index
+            suggest(handler.commands.keys, CommandRegistry.fold(commandName))?.takeIf { it.second >= MIN_SIMILARITY }?.first)
+                ?: return Mono.empty()
 
         return context.message.channel
-            .flatMap { it.createMessage("❗ Command `$commandName` not found. Did you mean `${suggestion.first}`? ❗") }
+            .flatMap { it.createMessage("❗ Command `$commandName` not found. Did you mean `$suggestion`? ❗") }
             .flatMap { it.addReaction(YES_REACTION).then(it.addReaction(NO_REACTION)).then(Mono.just(it)) }
-            .flatMapMany { msg -> harmony.client.on(ReactionAddEvent::class.java).map { msg to it } }
-            .filter { it.first.id == it.second.messageId && context.message.author.get().id == it.second.userId }
-            .filter { it.second.emoji == YES_REACTION || it.second.emoji == NO_REACTION }
-            .timeout(TIMEOUT)
-            .onErrorResume(TimeoutException::class.java) { Flux.empty() }
+            .flatMapMany { it.listenForReacts(TIMEOUT) }
+            .filter { context.message.author.get().id == it.userId }
+            .filter { it.emoji == YES_REACTION || it.emoji == NO_REACTION }
             .next()
-            .filter { it.second.emoji == YES_REACTION }
-            .map { suggestion.first }
+            .filter { it.emoji == YES_REACTION }
+            .map { suggestion }
+    }
+
+    /**
+     * The index of a registry's command names at a version, and the suggestions made from it.
+     */
+    private class Suggestions(val registry: CommandRegistry, val version: Long, val index: TypoIndex) {
+
+        val misses: MutableMap<Miss, String> = Collections.synchronizedMap(
+                object : LinkedHashMap<Miss, String>(16, 0.75f, true) {
+                    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Miss, String>?) =
+                            size > MAX_CACHED_MISSES
+                })
+    }
+
+    /**
+     * A mistyped command name, and the guild it was suggested for if the guild has server specific commands.
+     */
+    private data class Miss(val guildId: Long?, val query: String)
+
+    private companion object {
+
+        /**
+         * Cached for misses without a suggestion, command names are never empty.
+         */
+        const val NO_SUGGESTION = ""
     }
 }
\ No newline at end of file
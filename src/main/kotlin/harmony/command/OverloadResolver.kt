@@ -0,0 +1,84 @@
+package harmony.command
+
+import discord4j.core.event.domain.message.MessageCreateEvent
+import harmony.Harmony
+import harmony.command.interfaces.ArgumentMappingException
+import harmony.command.util.CommandCall
+import reactor.core.publisher.Mono
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * The maximum number of token shapes remembered per command.
+ */
+private const val MAX_CACHED_SHAPES = 256
+
+/**
+ * Picks the responder to handle an invocation. Candidates are attempted in the [DispatchTable]'s priority order, moving
+ * on to the next candidate if arguments fail to map. Candidates whose mappers reject the tokens' syntax are skipped
+ * without being mapped. Only the candidate whose arguments mapped is invoked, a failure while it runs never falls back
+ * to another candidate. The candidate that mapped for a given token shape (the syntactic category of each token) is
+ * remembered so that later invocations of the same shape try it first. Tokens are only scanned as far as any candidate
+ * could need them.
+ *
+ * @param table The dispatch table for the command.
+ */
+class OverloadResolver(private val table: DispatchTable) {
+
+    private val resolved = ConcurrentHashMap<Long, DispatchCandidate>()
+
+    /**
+     * Invokes the best fitting responder.
+     *
+     * @param harmony The harmony instance.
+     * @param event The context.
+     * @param tokens The tokens to use for argument parsing.
+     * @return The result if there are any, or an [ArgumentMappingException] if no candidate could map the tokens.
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun invoke(harmony: Harmony, event: MessageCreateEvent, tokens: Tokens): Mono<Any> {
+        val tokenCount = table.countTokens(tokens)
+        val candidates = table.candidates(tokenCount)
+        if (candidates.isEmpty()) return Mono.error(ArgumentMappingException())
+
+        val shape = TokenShape.of(tokens, tokenCount)
+        val preferred = if (shape != TokenShape.UNKNOWN && candidates.size > 1) resolved[shape] else null
+        val order = if (preferred == null || preferred === candidates[0]) candidates
+                    else arrayOf(preferred) + candidates.filter { it !== preferred }
+
+        return prepare(harmony, event, tokens, tokenCount, candidates, order, 0, shape)
+                .publishOnIsolated()
+                .flatMap { call -> Mono.defer { call.call() } as Mono<Any> }
+    }
+
+    /**
+     * Maps the arguments of the first candidate which accepts the tokens, falling back to later candidates only while
+     * mapping fails.
+     */
+    private fun prepare(harmony: Harmony, event: MessageCreateEvent, tokens: Tokens, tokenCount: Int,
+                        candidates: Array<DispatchCandidate>, order: Array<DispatchCandidate>, index: Int,
+                        shape: Long): Mono<CommandCall> {
+        var next = index
+        while (next < order.size && !order[next].canAccept(tokens, tokenCount)) next++
+        if (next == order.size) return Mono.error(ArgumentMappingException())
+
+        val candidate = order[next]
+        val mapping = Mono.defer { candidate.handle.prepare(harmony, event, candidate.adapt(tokens)) }
+                .doOnNext { remember(shape, candidates, candidate) }
+
+        return if (next == order.size - 1)
+            mapping
+        else
+            mapping.onErrorResume(ArgumentMappingException::class.java) {
+                prepare(harmony, event, tokens, tokenCount, candidates, order, next + 1, shape)
+            }
+    }
+
+    private fun remember(shape: Long, candidates: Array<DispatchCandidate>, candidate: DispatchCandidate) {
+        if (shape == TokenShape.UNKNOWN || candidates.size < 2) return
+
+        if (candidate === candidates[0])
+            resolved.remove(shape)
+        else if (resolved.size < MAX_CACHED_SHAPES || resolved.containsKey(shape))
+            resolved[shape] = candidate
+    }
+}
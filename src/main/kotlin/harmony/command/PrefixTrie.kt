@@ -0,0 +1,155 @@
+package harmony.command
+
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A compiled set of command prefixes. Matching walks the trie over the first characters of a message once, rather than
+ * checking each prefix in turn.
+ *
+ * Nodes are stored in flat arrays: the edges of node `n` are `labels[edges[n] until edges[n + 1]]`, sorted by label,
+ * leading to the nodes in `targets` at the same indexes.
+ *
+ * @param prefixes The prefixes to match.
+ */
+class PrefixTrie(prefixes: Collection<String>) {
+
+    private val edges: IntArray
+    private val labels: CharArray
+    private val targets: IntArray
+    private val terminal: BooleanArray
+
+    init {
+        val root = Builder()
+        for (prefix in prefixes) {
+            var node = root
+            for (c in prefix) node = node.children.getOrPut(c) { Builder() }
+            node.terminal = true
+        }
+
+        // Flatten breadth-first, so each node's children are numbered contiguously
+        val nodes = arrayListOf(root)
+        var i = 0
+        while (i < nodes.size) nodes.addAll(nodes[i++].children.values)
+
+        edges = IntArray(nodes.size + 1)
+        labels = CharArray(nodes.size - 1)
+        targets = IntArray(nodes.size - 1)
+        terminal = BooleanArray(nodes.size)
+
+        var edge = 0
+        var next = 1
+        for ((index, node) in nodes.withIndex()) {
+            edges[index] = edge
+            terminal[index] = node.terminal
+            for (label in node.children.keys) {
+                labels[edge] = label
+                targets[edge] = next++
+                edge++
+            }
+        }
+        edges[nodes.size] = edge
+    }
+
+    /**
+     * Finds the longest prefix a string starts with.
+     *
+     * @param content The string.
+     * @return The end of the longest matching prefix (its length), or -1 if no prefix matches.
+     */
+    fun match(content: CharSequence): Int {
+        var node = 0
+        var longest = if (terminal[0]) 0 else -1
+        var i = 0
+        while (i < content.length) {
+            node = child(node, content[i])
+            if (node < 0) break
+            i++
+            if (terminal[node]) longest = i
+        }
+        return longest
+    }
+
+    private fun child(node: Int, label: Char): Int {
+        var low = edges[node]
+        var high = edges[node + 1] - 1
+        while (low <= high) {
+            val mid = (low + high) ushr 1
+            val c = labels[mid]
+            when {
+                c < label -> low = mid + 1
+                c > label -> high = mid - 1
+                else -> return targets[mid]
+            }
+        }
+        return -1
+    }
+
+    private class Builder {
+        val children = TreeMap<Char, Builder>()
+        var terminal = false
+    }
+}
+
+/**
+ * Compiled [PrefixTrie]s keyed by prefix set, without any locking. Sets of several prefixes are looked up by identity so
+ * a lookup never hashes the whole set, providers are expected to return the same set while prefixes are unchanged.
+ * Single prefixes are looked up by value since the default [harmony.command.interfaces.PrefixProvider.getGuildPrefixes]
+ * wraps each prefix in a new set.
+ *
+ * Once a table is full, tries which haven't been used since the previous sweep are evicted, which approximates evicting
+ * the least recently used ones.
+ *
+ * @param maxSize The number of tries each table holds before it is swept.
+ * @param compile Compiles the trie for a set of prefixes.
+ */
+internal class PrefixTrieCache(private val maxSize: Int, private val compile: (Set<String>) -> PrefixTrie) {
+
+    private val sets = ConcurrentHashMap<Identity, Cached>()
+    private val singles = ConcurrentHashMap<String, Cached>()
+    private val none by lazy { compile(emptySet()) }
+
+    /**
+     * Gets the trie for a set of prefixes, compiling it if needed.
+     *
+     * @param prefixes The prefixes.
+     * @return The trie.
+     */
+    fun get(prefixes: Set<String>): PrefixTrie = when (prefixes.size) {
+        0 -> none
+        1 -> get(singles, prefixes.first(), prefixes)
+        else -> get(sets, Identity(prefixes), prefixes)
+    }
+
+    private fun <K> get(table: ConcurrentHashMap<K, Cached>, key: K, prefixes: Set<String>): PrefixTrie {
+        val cached = table[key]
+        if (cached != null) {
+            if (!cached.used) cached.used = true  // Avoid writing to a shared line on every hit
+            return cached.trie
+        }
+
+        if (table.size >= maxSize) sweep(table)
+        return compile(prefixes).also { table[key] = Cached(it) }
+    }
+
+    private fun sweep(table: ConcurrentHashMap<*, Cached>) {
+        table.values.removeIf { cached ->
+            val used = cached.used
+            cached.used = false
+            !used
+        }
+    }
+
+    private class Identity(val prefixes: Set<String>) {
+
+        override fun equals(other: Any?) = other is Identity && other.prefixes === prefixes
+
+        override fun hashCode() = System.identityHashCode(prefixes)
+    }
+
+    private class Cached(val trie: PrefixTrie) {
+
+        @Volatile
+        var used = false
+    }
+}
@@ -0,0 +1,91 @@
+package harmony.command
+
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The number of buckets a [RateLimiter] holds before it starts sweeping out idle ones.
+ */
+private const val SWEEP_THRESHOLD = 4096
+
+/**
+ * A limit on how often something can be done.
+ *
+ * @param uses The number of uses allowed per period, these can be used in a burst.
+ * @param period The period over which uses are refilled.
+ */
+data class RateLimit(val uses: Int, val period: Duration) {
+
+    init {
+        require(uses > 0) { "Uses must be positive" }
+        require(!period.isNegative && !period.isZero) { "The period must be positive" }
+    }
+}
+
+/**
+ * How to respond to invocations which exceed a [RateLimit].
+ */
+enum class ThrottlePolicy {
+
+    /**
+     * Ignore the invocation.
+     */
+    DROP,
+
+    /**
+     * Ignore the invocation, but signal an error to the user. Only one notice is sent per user every few seconds, so
+     * spamming a command doesn't turn into spamming notices.
+     */
+    NOTIFY
+}
+
+/**
+ * Token buckets keyed by id, for example by user. Each bucket is a single timestamp (the time at which it would be
+ * full again, known as the generic cell rate algorithm), updated with a compare-and-set, so acquiring never blocks.
+ *
+ * Buckets are created on first use and idle buckets are swept out once there are many, so memory is bounded by the
+ * number of recently active ids.
+ *
+ * @param limit The limit of each bucket.
+ */
+class RateLimiter(val limit: RateLimit) {
+
+    private val period = limit.period.toNanos()
+    private val interval = period / limit.uses
+    private val origin = System.nanoTime()
+    private val buckets = ConcurrentHashMap<Long, AtomicLong>()
+
+    @Volatile
+    private var sweepAt = SWEEP_THRESHOLD
+
+    /**
+     * Tries to use a token.
+     *
+     * @param key The bucket's id.
+     * @return 0 if a token was used, else the number of nanoseconds until one is available.
+     */
+    fun tryAcquire(key: Long): Long {
+        // Offset by a period so that a new bucket (0) starts out full
+        val now = System.nanoTime() - origin + period
+
+        var bucket = buckets[key]
+        if (bucket == null) {
+            if (buckets.size >= sweepAt) sweep(now)
+            bucket = buckets.computeIfAbsent(key) { AtomicLong() }
+        }
+
+        while (true) {
+            val full = bucket.get()
+            val next = maxOf(full, now) + interval
+            val wait = next - now - period
+            if (wait > 0) return wait
+            if (bucket.compareAndSet(full, next)) return 0
+        }
+    }
+
+    private fun sweep(now: Long) {
+        buckets.entries.removeIf { it.value.get() <= now }
+        sweepAt = maxOf(SWEEP_THRESHOLD, buckets.size * 2)
+    }
+}
@@ -0,0 +1,119 @@
+package harmony.command
+
+/**
+ * Cheap syntactic classification of tokens. This only looks at the characters of a token, so it can be used to reason
+ * about which arguments a token could map to without running any mappers.
+ */
+internal object TokenShape {
+
+    const val WORD = 0
+    const val INTEGER = 1
+    const val DECIMAL = 2
+    const val BOOLEAN = 3
+    const val SNOWFLAKE = 4
+    const val USER_MENTION = 5
+    const val ROLE_MENTION = 6
+    const val CHANNEL_MENTION = 7
+
+    /**
+     * Returned by [of] when there are too many tokens to encode.
+     */
+    const val UNKNOWN = -1L
+
+    private const val BITS = 3
+    private const val COUNT_BITS = 5
+    private const val MAX_TOKENS = (64 - COUNT_BITS) / BITS
+
+    /**
+     * Classifies a single token.
+     *
+     * @param token The token.
+     * @return The shape of the token.
+     */
+    fun classify(token: String): Int = classify(token, 0, token.length)
+
+    /**
+     * Classifies a region of a string as a token.
+     *
+     * @param content The string containing the token.
+     * @param start The start of the token (inclusive).
+     * @param end The end of the token (exclusive).
+     * @return The shape of the token.
+     */
+    fun classify(content: CharSequence, start: Int, end: Int): Int {
+        val length = end - start
+        if (length == 0) return WORD
+
+        if (content[start] == '<' && content[end - 1] == '>' && length > 3) {
+            return when {
+                startsWith(content, start, "<@&") && isDigits(content, start + 3, end - 1) -> ROLE_MENTION
+                startsWith(content, start, "<@!") && isDigits(content, start + 3, end - 1) -> USER_MENTION
+                startsWith(content, start, "<@") && isDigits(content, start + 2, end - 1) -> USER_MENTION
+                startsWith(content, start, "<#") && isDigits(content, start + 2, end - 1) -> CHANNEL_MENTION
+                else -> WORD
+            }
+        }
+
+        if (regionMatches(content, start, end, "true") || regionMatches(content, start, end, "false")) return BOOLEAN
+
+        val sign = content[start] == '-' || content[start] == '+'
+        val digitsStart = if (sign) start + 1 else start
+        if (digitsStart == end) return WORD
+
+        var dot = -1
+        for (i in digitsStart until end) {
+            val c = content[i]
+            if (c == '.' && dot < 0) dot = i
+            else if (c !in '0'..'9') return WORD
+        }
+
+        return when {
+            dot >= 0 -> if (dot == digitsStart || dot == end - 1) WORD else DECIMAL
+            !sign && length in 17..20 -> SNOWFLAKE
+            else -> INTEGER
+        }
+    }
+
+    /**
+     * Encodes the shapes of the first tokens into a single key.
+     *
+     * @param tokens The tokens.
+     * @param count The number of tokens to encode, there must be at least this many.
+     * @return The key or [UNKNOWN] if there are too many tokens.
+     */
+    fun of(tokens: Tokens, count: Int): Long {
+        if (count > MAX_TOKENS) return UNKNOWN
+
+        var key = count.toLong()
+        var shift = COUNT_BITS
+        for (i in 0 until count) {
+            val shape = if (tokens.isEscaped(i)) classify(tokens[i])
+                        else classify(tokens.source, tokens.start(i), tokens.end(i))
+            key = key or (shape.toLong() shl shift)
+            shift += BITS
+        }
+        return key
+    }
+
+    private fun startsWith(content: CharSequence, start: Int, prefix: String): Boolean {
+        for (i in prefix.indices) {
+            if (content[start + i] != prefix[i]) return false
+        }
+        return true
+    }
+
+    private fun regionMatches(content: CharSequence, start: Int, end: Int, word: String): Boolean {
+        if (end - start != word.length) return false
+        for (i in word.indices) {
+            if (Character.toLowerCase(content[start + i]) != word[i]) return false
+        }
+        return true
+    }
+
+    private fun isDigits(content: CharSequence, start: Int, end: Int): Boolean {
+        for (i in start until end) {
+            if (content[i] !in '0'..'9') return false
+        }
+        return true
+    }
+}
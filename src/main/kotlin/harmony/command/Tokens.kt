@@ -0,0 +1,234 @@
+package harmony.command
+
+/**
+ * The tokens of a command's arguments. Tokens are stored as spans (start offset, end offset and flags) over the
+ * original string, strings are only materialized when a token is requested and are then cached.
+ *
+ * Tokenization is lazy, the source is only scanned as far as the tokens requested so far. Dispatching therefore only
+ * scans as many tokens as the selected responder takes, the remainder is handed over as-is for a trailing string
+ * argument.
+ *
+ * Views created by [collapse] share the scanned spans and cached strings of the tokens they were created from. Tokens
+ * are not thread-safe, they are meant to be consumed by a single invocation.
+ *
+ * @see CommandTokenizer.tokenize
+ */
+class Tokens private constructor(private val scanner: Scanner,
+                                 private val limit: Int,
+                                 private val collapsed: Boolean) {
+
+    internal constructor(source: String, from: Int) : this(Scanner(source, from), UNBOUNDED, false)
+
+    /**
+     * The string the tokens are parsed from.
+     */
+    val source: String
+        get() = scanner.source
+
+    /**
+     * The number of tokens. For tokens which have not been adapted with [collapse], this requires scanning the rest of
+     * the source.
+     */
+    val size: Int
+        get() = if (limit != UNBOUNDED) limit else scanner.scanAll()
+
+    /**
+     * Whether there are no tokens.
+     */
+    fun isEmpty() = countUpTo(1) == 0
+
+    /**
+     * Counts the tokens, only scanning as far as needed.
+     *
+     * @param max The maximum count of interest.
+     * @return The number of tokens, or [max] if there are at least that many.
+     */
+    fun countUpTo(max: Int): Int {
+        if (limit != UNBOUNDED) return minOf(limit, max)
+        scanner.scanTo(max)
+        return minOf(scanner.count, max)
+    }
+
+    /**
+     * Gets a token, unquoted and with escapes processed. If these tokens have been collapsed, the last token is the
+     * rest of the source string.
+     *
+     * @param index The index of the token.
+     * @return The token.
+     */
+    operator fun get(index: Int): String {
+        if (index < 0 || countUpTo(index + 1) <= index) throw IndexOutOfBoundsException("Index: $index")
+
+        if (collapsed && index == limit - 1)
+            return source.substring(scanner.rawStart(index), scanner.trimmedEnd())
+
+        return scanner.token(index)
+    }
+
+    /**
+     * Adapts these tokens to a number of arguments. Excess tokens are collapsed into the last one, which becomes the
+     * rest of the source string from that token onwards (preserving the original whitespace). With no arguments, all
+     * tokens are dropped. The excess tokens are never scanned.
+     *
+     * @param arity The number of arguments, there must be at least this many tokens.
+     * @return A view over these tokens.
+     */
+    fun collapse(arity: Int): Tokens {
+        if (arity == 0) return Tokens(scanner, 0, false)
+
+        scanner.scanTo(arity)
+        return Tokens(scanner, arity, scanner.hasMoreAfter(arity - 1))
+    }
+
+    /**
+     * The offset at which the token's content starts (after any opening quote).
+     */
+    internal fun start(index: Int): Int {
+        scanner.scanTo(index + 1)
+        return scanner.start(index)
+    }
+
+    /**
+     * The offset at which the token's content ends (before any closing quote), exclusive.
+     */
+    internal fun end(index: Int): Int {
+        scanner.scanTo(index + 1)
+        return scanner.end(index)
+    }
+
+    /**
+     * Whether the token's content contains escapes, meaning it cannot be used as-is.
+     */
+    internal fun isEscaped(index: Int): Boolean {
+        scanner.scanTo(index + 1)
+        return scanner.flags(index) and ESCAPED != 0
+    }
+
+    override fun toString() = (0 until size).joinToString(prefix = "[", postfix = "]") { get(it) }
+
+    /**
+     * Incrementally splits a string into whitespace separated tokens. Tokens can be grouped with single or double
+     * quotes, and quotes, whitespace and backslashes can be escaped with a backslash.
+     *
+     * Each scanner owns its span arrays, sized for a handful of tokens and grown as needed. They can't be borrowed from
+     * a per-thread buffer since scanning is lazy and may continue on another thread once the invocation goes async.
+     */
+    private class Scanner(val source: String, private var position: Int) {
+
+        var count = 0
+            private set
+
+        private var spans = IntArray(4 * SPAN)
+        private var strings = arrayOfNulls<String>(4)
+
+        fun start(index: Int) = spans[index * SPAN]
+
+        fun end(index: Int) = spans[index * SPAN + 1]
+
+        fun flags(index: Int) = spans[index * SPAN + 2]
+
+        fun rawStart(index: Int) = start(index) - if (flags(index) and QUOTED != 0) 1 else 0
+
+        fun rawEnd(index: Int) = end(index) + if (flags(index) and CLOSED != 0) 1 else 0
+
+        fun trimmedEnd(): Int {
+            var end = source.length
+            while (end > 0 && Character.isWhitespace(source[end - 1])) end--
+            return end
+        }
+
+        fun hasMoreAfter(index: Int): Boolean {
+            if (index + 1 < count) return true
+            var i = rawEnd(index)
+            while (i < source.length && Character.isWhitespace(source[i])) i++
+            return i < source.length
+        }
+
+        fun scanAll(): Int {
+            scanTo(Int.MAX_VALUE)
+            return count
+        }
+
+        fun scanTo(target: Int) {
+            while (count < target && scanNext()) {}
+        }
+
+        fun token(index: Int): String = strings[index] ?: materialize(index).also { strings[index] = it }
+
+        private fun scanNext(): Boolean {
+            val length = source.length
+            var i = position
+            while (i < length && Character.isWhitespace(source[i])) i++
+            if (i >= length) {
+                position = length
+                return false
+            }
+
+            val quote = source[i]
+            val isQuoted = quote == '"' || quote == '\''
+            var flags = 0
+            if (isQuoted) {
+                flags = QUOTED
+                i++
+            }
+
+            val start = i
+            while (i < length && (if (isQuoted) source[i] != quote else !Character.isWhitespace(source[i]))) {
+                if (source[i] == '\\') {
+                    flags = flags or ESCAPED
+                    i++
+                }
+                i++
+            }
+            val end = minOf(i, length)
+            if (isQuoted && i < length) {  // An unclosed quote runs to the end
+                flags = flags or CLOSED
+                i++
+            }
+            position = minOf(i, length)
+
+            if ((count + 1) * SPAN > spans.size) {
+                spans = spans.copyOf(spans.size * 2)
+                strings = strings.copyOf(strings.size * 2)
+            }
+            spans[count * SPAN] = start
+            spans[count * SPAN + 1] = end
+            spans[count * SPAN + 2] = flags
+            count++
+            return true
+        }
+
+        private fun materialize(index: Int): String {
+            val start = start(index)
+            val end = end(index)
+            if (flags(index) and ESCAPED == 0) return source.substring(start, end)
+
+            val builder = StringBuilder(end - start)
+            var i = start
+            while (i < end) {
+                val c = source[i]
+                if (c == '\\' && i + 1 < end) {
+                    val next = source[++i]
+                    if (next != '"' && next != '\'' && next != '\\' && !Character.isWhitespace(next))
+                        builder.append(c)
+                    builder.append(next)
+                } else if (c != '\\') {
+                    builder.append(c)
+                }
+                i++
+            }
+            return builder.toString()
+        }
+    }
+
+    private companion object {
+
+        const val UNBOUNDED = -1
+
+        const val SPAN = 3
+
+        const val ESCAPED = 1
+        const val QUOTED = 2
+        const val CLOSED = 4
+    }
+}
@@ -0,0 +1,121 @@
+package harmony.command
+
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+/**
+ * The maximum edit distance between a mistyped command name and its suggestion.
+ */
+const val MAX_TYPO_DISTANCE = 2
+
+/**
+ * A BK-tree over the Levenshtein distance between command names. Searching for the names close to a query only visits
+ * the subtrees which could contain them, rather than every name.
+ *
+ * Names can be added at any time, searches may run concurrently with additions.
+ */
+class TypoIndex {
+
+    private val lock = ReentrantReadWriteLock()
+    private var root: Node? = null
+
+    /**
+     * The number of names in the index.
+     */
+    var size = 0
+        private set
+
+    /**
+     * Adds a name, names already in the index are ignored.
+     *
+     * @param name The name.
+     */
+    fun add(name: String) = lock.write {
+        var node = root
+        if (node == null) {
+            root = Node(name)
+            size++
+            return@write
+        }
+
+        while (true) {
+            val distance = distance(name, node!!.name)
+            if (distance == 0) return@write
+
+            val child = node.child(distance)
+            if (child == null) {
+                node.setChild(distance, Node(name))
+                size++
+                return@write
+            }
+            node = child
+        }
+    }
+
+    /**
+     * Finds all names within an edit distance of a query.
+     *
+     * @param query The name to search for.
+     * @param maxDistance The maximum edit distance.
+     * @param visitor Called with each name found and its distance.
+     */
+    fun search(query: String, maxDistance: Int = MAX_TYPO_DISTANCE, visitor: (String, Int) -> Unit) = lock.read {
+        val pending = ArrayList<Node>()
+        root?.let { pending.add(it) }
+
+        while (pending.isNotEmpty()) {
+            val node = pending.removeAt(pending.size - 1)
+            val distance = distance(query, node.name)
+            if (distance <= maxDistance) visitor(node.name, distance)
+
+            // By the triangle inequality, matches can only be in children at distance - max..distance + max
+            val children = node.children
+            for (i in maxOf(1, distance - maxDistance)..minOf(children.size - 1, distance + maxDistance)) {
+                children[i]?.let { pending.add(it) }
+            }
+        }
+    }
+
+    private class Node(val name: String) {
+
+        /**
+         * Children indexed by their distance to this node.
+         */
+        var children: Array<Node?> = NO_CHILDREN
+            private set
+
+        fun child(distance: Int) = if (distance < children.size) children[distance] else null
+
+        fun setChild(distance: Int, child: Node) {
+            if (distance >= children.size) children = children.copyOf(distance + 1)
+            children[distance] = child
+        }
+
+        companion object {
+            val NO_CHILDREN = arrayOfNulls<Node>(0)
+        }
+    }
+
+    private companion object {
+
+        fun distance(a: String, b: String): Int {
+            if (a.length < b.length) return distance(b, a)
+            if (b.length == 0) return a.length
+
+            var previous = IntArray(b.length + 1) { it }
+            var current = IntArray(b.length + 1)
+            for (i in 1..a.length) {
+                current[0] = i
+                for (j in 1..b.length) {
+                    val cost = if (a[i - 1] == b[j - 1]) 0 else 1
+                    current[j] = minOf(previous[j] + 1, current[j - 1] + 1, previous[j - 1] + cost)
+                }
+                val swap = previous
+                previous = current
+                current = swap
+            }
+            return previous[b.length]
+        }
+    }
+}
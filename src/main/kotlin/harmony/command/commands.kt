@@ -3,7 +3,6 @@ package harmony.command
 import discord4j.common.util.Snowflake
 import discord4j.core.`object`.reaction.ReactionEmoji
 import discord4j.core.event.domain.message.MessageCreateEvent
-import discord4j.rest.util.Color
 import discord4j.rest.util.Permission
 import discord4j.rest.util.PermissionSet
 import harmony.Harmony
@@ -11,13 +10,17 @@ import harmony.command.annotations.ChannelType
 import harmony.command.interfaces.ArgumentMappingException
 import harmony.command.interfaces.CommandArgumentMapper
 import harmony.command.interfaces.CommandErrorSignal
+import harmony.command.util.CommandCall
 import harmony.util.*
 import org.reactivestreams.Publisher
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
+import reactor.core.scheduler.Scheduler
+import reactor.core.scheduler.Schedulers
 import java.time.Duration
 import java.util.*
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
 
 /**
  * This represents information regarding a command's argument.
@@ -56,6 +59,8 @@ data class CommandVariantInfo(
  * @param servers The servers that this command can be used in.
  * @param commandVariants Information for the handlers available for the command.
  * @param responders A tree representing mappings from arguments -> handler implementation.
+ * @param cooldown How often each user can invoke the command if limited.
+ * @param isolatedThreads The size of the command's own thread pool, if it is isolated from the shared event threads.
  */
 data class InvocableCommand(
         val name: String,
@@ -66,9 +71,49 @@ data class InvocableCommand(
         val channelType: ChannelType,
         val servers: Array<Snowflake>?,
         val commandVariants: Array<CommandVariantInfo>,
-        val responders: Tree
+        val responders: Tree,
+        val cooldown: RateLimit? = null,
+        val isolatedThreads: Int? = null
 ) {
 
+    /**
+     * The per user buckets enforcing the [cooldown].
+     */
+    internal val limiter = cooldown?.let { RateLimiter(it) }
+
+    private val isolatedScheduler = AtomicReference<Scheduler?>()
+
+    /**
+     * The command's own scheduler if it is isolated, its threads are created on demand and expire when idle. It is
+     * disposed once dispatch stops, and created again if the command is invoked after that.
+     */
+    internal val scheduler: Scheduler?
+        get() {
+            val threads = isolatedThreads ?: return null
+            while (true) {
+                val curr = isolatedScheduler.get()
+                if (curr != null && !curr.isDisposed) return curr
+
+                val created = Schedulers.newBoundedElastic(threads, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "harmony-$name")
+                if (isolatedScheduler.compareAndSet(curr, created)) return created
+                created.dispose()
+            }
+        }
+
+    /**
+     * Disposes the command's own scheduler, if it has been created.
+     */
+    internal fun disposeScheduler() {
+        isolatedScheduler.getAndSet(null)?.dispose()
+    }
+
+    /**
+     * The responders compiled into a table indexed by the number of tokens provided.
+     */
+    val dispatchTable = DispatchTable(responders)
+
+    private val resolver = OverloadResolver(dispatchTable)
+
     /**
      * Called to invoke the command.
      *
@@ -77,16 +122,10 @@ data class InvocableCommand(
      * @param tokens The tokens to use for argument parsing.
      * @return The result if there are any.
      */
-    fun invoke(harmony: Harmony, event: MessageCreateEvent, tokens: Deque<String>): Mono<Any> {
+    fun invoke(harmony: Harmony, event: MessageCreateEvent, tokens: Tokens): Mono<Any> {
         if (botOwnerOnly && event.message.author.get().id != harmony.owner.id) return Mono.error(CommandErrorSignal("Only the bot owner can run this command!"))
 
-        val responderCandidates = generateCandidates(responders, tokens.size)
-
-        for (candidate in responderCandidates) {
-            return candidate.tryInvoke(harmony, event, tokens)
-        }
-
-        return Mono.empty()
+        return resolver.invoke(harmony, event, tokens)
     }
 }
 
@@ -167,6 +206,16 @@ class CommandBuilder(val name: String) {
      */
     var servers: Array<Snowflake>? = null
 
+    /**
+     * How often each user can invoke this command, unlimited if null.
+     */
+    var cooldown: RateLimit? = null
+
+    /**
+     * The size of this command's own thread pool, it runs on the shared event threads if null.
+     */
+    var isolatedThreads: Int? = null
+
     private val responders = mutableListOf<CommandResponderBuilder>()
 
     /**
@@ -196,6 +245,26 @@ class CommandBuilder(val name: String) {
         requiresPermissions = permissionSet
     }
 
+    /**
+     * Limits how often each user can invoke this command.
+     *
+     * @param period The length of the cooldown.
+     * @param uses The number of uses allowed per cooldown.
+     */
+    fun cooldown(period: Duration, uses: Int = 1) {
+        cooldown = RateLimit(uses, period)
+    }
+
+    /**
+     * Runs this command on its own pool of threads, so that it can block without holding up other commands.
+     *
+     * @param threads The maximum number of threads in the pool.
+     */
+    fun isolated(threads: Int = 1) {
+        require(threads > 0) { "The pool needs at least one thread" }
+        isolatedThreads = threads
+    }
+
     // Syntactic sugar funcs
 
     /**
@@ -283,29 +352,15 @@ class CommandBuilder(val name: String) {
     internal fun build(): InvocableCommand {
         val responderTree = Tree()
         responders.forEach {
-            if (it.args.isEmpty()) {
-                responderTree.obj = it.handle!!
-            } else {
-                var currNode = responderTree
-                for (arg in it.args) {
-                    // Copied from scanner.kt
-                    if (arg.type in currNode.children.keys) {
-                        currNode = currNode.children[arg.type]!!
-                    } else {
-                        val newNode = Node(arg.type)
-                        currNode.addChild(newNode)
-                        currNode = newNode
-                    }
-                }
-                currNode.obj = it.handle!!
-            }
+            responderTree.addResponder(it.args.map { arg -> arg.type }.toTypedArray(), it.handle!!)
         }
 
         return InvocableCommand(name, aliases, description, requiresPermissions, botOwnerOnly, channelType, servers,
                 responders.map {
                     CommandVariantInfo(it.description,
                             it.args.map { arg -> CommandArgumentInfo(arg.name, arg.description, arg.type) }.toTypedArray())
-                }.toTypedArray(), responderTree)
+                }.toTypedArray(), responderTree, cooldown,
+                isolatedThreads)
     }
 }
 
@@ -353,20 +408,18 @@ class CommandResponderBuilder(internal val args: Array<Arg>) {
                 tokenHandler = CommandTokenizer(converters)
             }
 
-            override fun tryInvoke(harmony: Harmony, event: MessageCreateEvent, tokens: Deque<String>): Mono<Any> {
-                val context = CommandContext.fromMessageCreateEvent(harmony, event)
-
-                return Flux.fromIterable(tokens.zip(converters))
-                        .flatMapSequential { it.second.map(context, it.first) }
-                        .collectList()
-                        .flatMap { args ->
+            override fun prepare(harmony: Harmony, event: MessageCreateEvent, tokens: Tokens): Mono<CommandCall> {
+                return CommandContext.create(harmony, event).flatMap { context ->
+                    tokenHandler.map(context, tokens).map { args ->
+                        CommandCall {
                             val res = handler(CommandResponder(context, args))
-                            if (res != null && res is Publisher<*>) {
-                                return@flatMap Flux.from(res).thenEmpty(Mono.empty())
-                            } else {
-                                return@flatMap Mono.justOrEmpty(res)
-                            }
+                            if (res is Publisher<*>)
+                                Flux.from(res).thenEmpty(Mono.empty())
+                            else
+                                Mono.justOrEmpty(res)
                         }
+                    }
+                }
             }
         }
     }
@@ -375,67 +428,44 @@ class CommandResponderBuilder(internal val args: Array<Arg>) {
 val BACK_ARROW = ReactionEmoji.unicode("⬅️")
 val FORWARD_ARROW = ReactionEmoji.unicode("➡️")
 
-internal fun helpBuilder(commandHandler: CommandHandler): InvocableCommand = buildCommand("help") {
+internal fun helpBuilder(commandHandler: HarmonyCommandHandler): InvocableCommand = buildCommand("help") {
     aliases = arrayOf("man")
 
     description = "Provides documentation for the commands available"
 
     requirePermission(Permission.SEND_MESSAGES)
 
+    val helpPages = HelpPages(commandHandler)
+
     responder() {
         description = "Lists all available commands"
 
         handle {
             val context = this.context
-            val commands = commandHandler.commands.filter {
-                (!it.value.botOwnerOnly || context.author.id == context.harmony.owner.id)
-                        && (it.value.servers == null || (context.server != null && context.server.id in it.value.servers!!))
-            }.map { it.key }.sorted()
-            val pages: List<List<EmbedField>> = commands
-                .map { EmbedField("**$it**", commandHandler.commands[it]!!.description?.take(1024) ?: "", true) }
-                .windowed(6, 6, partialWindows = true) // 6 commands per page
+            val pages = helpPages.list(context.author.id == context.harmony.owner.id, context.server?.id)
 
             val currPage = AtomicInteger(0)
 
             val embedBuilder = {
-                embed {
-                    author = "Help"
-                    authorIconUrl = commandHandler.harmony.self.avatarUrl
-
-                    title = "Command List"
-
-                    description = "There are a total of ${commands.size} commands loaded. Use the reactions below to flip " +
-                            "between pages. Provide the help command a command name as an argument to get more information."
-
-                    thumbnailUrl = "https://www.thedataschool.co.uk/wp-content/uploads/2019/02/45188-200.png" // Info icon
-
-                    color = Color.CYAN
-
-                    for (field in pages[currPage.get()]) {
-                        addField(field)
-                    }
-
-                    footer = "Page ${currPage.get() + 1} of ${pages.size}"
-                    footerIconUrl = context.author.avatarUrl
-                    timestamp = context.message.timestamp
-                }
+                pages[currPage.get()].copy(footerIconUrl = context.author.avatarUrl, timestamp = context.message.timestamp)
             }
 
-            embedBuilder().send(context.channel).flatMap {
-                it.addReaction(BACK_ARROW)
-                    .then(it.addReaction(FORWARD_ARROW))
-                    .then(Mono.just(it))
-            }.flatMapMany {
-                it.listenForReacts()
+            // The command is done once the first page is sent, paging is returned as the reply so it doesn't hold up
+            // dispatch or a concurrency slot, and stops along with dispatch
+            embedBuilder().send(context.channel).map { message ->
+                message.addReaction(BACK_ARROW)
+                    .then(message.addReaction(FORWARD_ARROW))
+                    .thenMany(message.listenForReacts(Duration.ofMinutes(30)))  // Only listen for 30 minutes
                     .filter { it.userId == context.author.id && (it.emoji == BACK_ARROW || it.emoji == FORWARD_ARROW) }
-                    .flatMap { event ->
+                    .concatMap { event ->
                         val modifier = if (event.emoji == BACK_ARROW) -1 else 1
                         val newPage = currPage.addAndGet(modifier).clamp(0, pages.size-1)
                         currPage.set(newPage)
-                        it.edit { spec -> spec.setEmbed(embedBuilder().toSpecConsumer()) }
+                        message.edit { spec -> spec.setEmbed(embedBuilder().toSpecConsumer()) }
                     }
-                    .take(Duration.ofMinutes(30))  // Only listen for 30 minutes
-            }.then()
+                    .onErrorResume { Mono.empty() }  // i.e. the message was deleted
+                    .then()
+            }
         }
     }
 
@@ -444,51 +474,12 @@ internal fun helpBuilder(commandHandler: CommandHandler): InvocableCommand = bui
 
         handle {
             val commandName = arg<String>(0)
-            val command: InvocableCommand = commandHandler.commands.getOrDefault(commandName, null)
+            val page = helpPages.command(commandName, context.author.id == context.harmony.owner.id,
+                    context.server?.id)
                 ?: throw CommandErrorSignal("Command `$commandName` does not exist!")
 
-            embed {
-                author = "Help"
-                authorIconUrl = commandHandler.harmony.self.avatarUrl
-
-                title = "Help page for: `$commandName`"
-
-                if (command.description != null) {
-                    description = command.description
-                }
-
-                if (command.channelType != ChannelType.ALL) {
-                    val msg = "This command can only be executed in ${command.channelType.name} channels."
-                    if (description == null) {
-                        description = msg
-                    } else {
-                        description = "$description\n$msg"
-                    }
-                }
-
-                thumbnailUrl = "https://www.thedataschool.co.uk/wp-content/uploads/2019/02/45188-200.png" // Info icon
-
-                color = Color.CYAN
-
-                if (command.aliases != null)
-                    addField(EmbedField("Aliases:", (arrayOf(command.name) + command.aliases).joinToString(", "), false))
-
-                if (command.requiresPermissions != null)
-                    addField(EmbedField("Requires Permissions:",
-                        command.requiresPermissions.asEnumSet().joinToString(", ") { it.name }, false))
-
-                for ((index, variant) in command.commandVariants.withIndex()) {
-                    addField(EmbedField(
-                        "${index+1}. $commandName ${variant.args.map { "`\$${it.name}`" }.joinToString(" ")}",
-                        variant.description?.take(1024) ?: "",
-                        true
-                    ))
-                }
-
-                footer = context.author.tag
-                footerIconUrl = context.author.avatarUrl
-                timestamp = context.message.timestamp
-            }.send(context.channel)
+            page.copy(footer = context.author.tag, footerIconUrl = context.author.avatarUrl,
+                    timestamp = context.message.timestamp).send(context.channel)
         }
     }
 
@@ -498,44 +489,12 @@ internal fun helpBuilder(commandHandler: CommandHandler): InvocableCommand = bui
 
         handle {
             val commandName = arg<String>(0)
-            val selector = arg<Int>(1)
-            val command: InvocableCommand = commandHandler.commands.getOrDefault(commandName, null)
+            val page = helpPages.variant(commandName, arg<Int>(1), context.author.id == context.harmony.owner.id,
+                    context.server?.id)
                 ?: throw CommandErrorSignal("Command `$commandName` does not exist!")
-            val variant: CommandVariantInfo = command.commandVariants[(selector-1).clamp(0, command.commandVariants.size-1)]
-
-            embed {
-                author = "Help"
-                authorIconUrl = commandHandler.harmony.self.avatarUrl
-
-                title = "Help page for: `$commandName`"
 
-                if (variant.description != null)
-                    description = variant.description
-                else if (command.description != null)
-                    description = command.description
-
-                description = if (description == null) "" else (description + "\n\n")
-
-                if (variant.args.isNotEmpty())
-                    description = description + "__**Arguments**__"
-
-                thumbnailUrl = "https://www.thedataschool.co.uk/wp-content/uploads/2019/02/45188-200.png" // Info icon
-
-                color = Color.CYAN
-
-                for (arg in variant.args) {
-                    val argTypeDesc: String = if (arg.type.isEnum) {
-                        arg.type.declaredFields.filter { it.isEnumConstant }.joinToString("|") { it.name }
-                    } else {
-                        arg.type.simpleName.capitalize()
-                    }
-                    addField(EmbedField("${arg.name}: $argTypeDesc", arg.description ?: "", false))
-                }
-
-                footer = context.author.tag
-                footerIconUrl = context.author.avatarUrl
-                timestamp = context.message.timestamp
-            }.send(context.channel)
+            page.copy(footer = context.author.tag, footerIconUrl = context.author.avatarUrl,
+                    timestamp = context.message.timestamp).send(context.channel)
         }
     }
-}
\ No newline at end of file
+}
@@ -11,7 +11,28 @@ import harmony.util.Feature
 import org.reactivestreams.Publisher
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
+import reactor.core.scheduler.Scheduler
+import reactor.core.scheduler.Schedulers
+import reactor.util.concurrent.Queues
+import java.time.Duration
 import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * The number of distinct prefix sets to keep compiled tries for before sweeping out unused ones.
+ */
+private const val MAX_PREFIX_TRIES = 4096
+
+/**
+ * The group of [DispatchMode.ORDERED_PER_CHANNEL] which holds unrecognized commands, these are checked for typos
+ * outside of the lanes.
+ */
+private const val TYPO_LANE = -1
+
+/**
+ * How often a user can be notified that they are being throttled.
+ */
+private val THROTTLE_NOTICE_INTERVAL = Duration.ofSeconds(5)
 
 /**
  * A handler for managing commands.
@@ -50,7 +71,48 @@ class HarmonyCommandHandler(
     val commandScanner: Feature<CommandScanner> = Feature.enable(AnnotationProcessorScanner())
 ) : CommandHandler {
 
-    override val commands = mutableMapOf<String, InvocableCommand>()
+    /**
+     * The registry holding the available commands.
+     */
+    val registry = CommandRegistry()
+
+    override val commands: Map<String, InvocableCommand>
+        get() = registry.commands
+
+    /**
+     * Compiled prefix tries, including the mention forms if they are enabled.
+     */
+    private val prefixTries = PrefixTrieCache(MAX_PREFIX_TRIES) { prefixes ->
+        PrefixTrie(if (options.mentionAsPrefix) prefixes + harmony.selfAsMention + harmony.selfAsMentionWithNick else prefixes)
+    }
+
+    private val prefixCache = options.prefix as? CachingPrefixProvider
+
+    private val userLimiter = options.userRateLimit ifEnabled { RateLimiter(it) }
+
+    private val noticeLimiter = RateLimiter(RateLimit(1, THROTTLE_NOTICE_INTERVAL))
+
+    /**
+     * The bulkheads limiting concurrent command executions, if [CommandOptions.concurrencyLimits] is enabled. These
+     * expose the number of executions in flight, queued and shed.
+     */
+    val bulkheads: Bulkheads? = options.concurrencyLimits ifEnabled { Bulkheads(it) }
+
+    /**
+     * Queued executions still occupy the dispatch stage, so on top of the usual concurrency it must allow every
+     * execution the bulkheads can hold. Otherwise saturation would back up into the gateway instead of being queued or
+     * shed per guild.
+     */
+    private val dispatchConcurrency = bulkheads?.limits
+            ?.let { minOf(Int.MAX_VALUE.toLong(), Queues.SMALL_BUFFER_SIZE.toLong() + it.global + it.maxQueued).toInt() }
+            ?: Queues.SMALL_BUFFER_SIZE
+
+    /**
+     * The workers of the dispatch lanes in [DispatchMode.ORDERED_PER_CHANNEL], disposed once dispatch stops along with
+     * the schedulers of isolated commands.
+     */
+    @Volatile
+    private var laneScheduler: Scheduler? = null
 
     @Suppress("CallingSubscribeInNonBlockingScope", "DEPRECATION")
     override fun setup(client: GatewayDiscordClient): Mono<Void> = Mono.fromRunnable<Void> {
@@ -60,113 +122,219 @@ class HarmonyCommandHandler(
                 .then(Mono.just(helpBuilder(this)).doOnNext { cmd -> registerCommand(cmd) }).subscribe()
         }
 
-        val resultMappers = resultMappers
+        val events = client.on(MessageCreateEvent::class.java)
+        val dispatched = when (options.dispatchMode) {
+            DispatchMode.CONCURRENT -> events.flatMap({ event ->
+                match(event).flatMap { if (it.command != null) execute(it) else resolve(it) }.flatMap { reply -> reply }
+            }, dispatchConcurrency)
+            DispatchMode.ORDERED_PER_CHANNEL -> {
+                // Only matched commands enter the lanes, each lane is pinned to one worker and executes its commands one
+                // at a time. Unrecognized commands skip the lanes, and replies are sent outside of them since Discord4J
+                // already queues the requests of a channel in order
+                val lanes = Schedulers.newParallel("harmony-dispatch", options.dispatchLanes, true)
+                laneScheduler = lanes
+                events.flatMap({ match(it) }, dispatchConcurrency)
+                        .groupBy { if (it.command != null) options.laneOf(it.event.message.channelId) else TYPO_LANE }
+                        .flatMap({ lane ->
+                            if (lane.key() == TYPO_LANE)
+                                lane.flatMap { resolve(it) }
+                            else
+                                lane.publishOn(lanes).concatMap { execute(it) }
+                        }, options.dispatchLanes + 1)
+                        .flatMap { reply -> reply }
+            }
+        }
 
-        client.on(MessageCreateEvent::class.java)
-                .filter {
-                    val author = it.message.author
-                    return@filter it.message.content.isNotBlank() && author.isPresent && !author.get().isBot
-                }
-                .map {
-                    if (options.mentionAsPrefix && it.message.content.startsWith(harmony.selfAsMentionWithNick)) {
-                        return@map it to it.message.content.removePrefix(harmony.selfAsMentionWithNick).stripLeading()
-                    } else if (options.mentionAsPrefix && it.message.content.startsWith(harmony.selfAsMention)) {
-                        return@map it to it.message.content.removePrefix(harmony.selfAsMention).stripLeading()
-                    } else {
-                        val prefix = if (it.guildId.isPresent)
-                            options.prefix.getGuildPrefix(it.guildId.get(), it.message.channelId)
-                        else
-                            options.prefix.getDmPrefix(it.message.author.get().id)
-                        if (prefix.isPresent && it.message.content.startsWith(prefix.get())) {
-                            return@map it to it.message.content.removePrefix(prefix.get()).stripLeading()
-                        } else {
-                            return@map it to null
-                        }
-                    }
-                }
-                .filter { it.second != null }
-                .map {
-                    if (it.second!!.isNotBlank()) {
-                        val split = it.second!!.split(" ")
-                        if (split.size == 1) {
-                            return@map Triple(it.first, split[0], "")
-                        } else {
-                            return@map Triple(it.first, split[0], it.second!!.removePrefix(split[0]).stripLeading())
-                        }
-                    } else {
-                        return@map Triple(it.first, null, null)
-                    }
+        dispatched.onErrorContinue { throwable, obj ->
+                    println("Error caught for object $obj!")
+                    throwable.printStackTrace()
                 }
-                .filter { it.second != null }
-                .flatMap {
-                    val event = it.first
-                    val command = commands.getOrDefault(it.second!!, null)
-                    val args = tokenize(it.third!!)
-
-                    if (command == null) {
-                        if (options.typoChecking.isEnabled)
-                            return@flatMap options.typoChecking.value.checkForTypos(harmony, event, it.second!!)
-                                .flatMap { suggestion -> Mono.justOrEmpty(commands.getOrDefault(suggestion, null)) }
-                                .map { cmd -> Triple(event, cmd!!, args) }
-                        else
-                            return@flatMap Mono.empty<Triple<MessageCreateEvent, InvocableCommand, Deque<String>>>()
-                    }
-
-                    return@flatMap Mono.just(Triple(event, command, args))
+                .doFinally {
+                    laneScheduler?.dispose()
+                    registry.commands.values.forEach { it.disposeScheduler() }
                 }
-                .flatMap {
-                    val event = it.first
-                    val cmd = it.second
-                    val args = it.third
-
-                    var response: Mono<Any>
-                    try {
-                        try {
-                            if ((cmd.channelType == ChannelType.DM && event.guildId.isPresent)
-                                || (cmd.channelType == ChannelType.SERVER && !event.guildId.isPresent))
-                                throw CommandErrorSignal("This command is not applicable in this channel type! It can only be executed in ${cmd.channelType.name.toLowerCase()} channels!")
-
-                            if (event.guildId.isPresent && cmd.requiresPermissions != null
-                                && cmd.requiresPermissions.isNotEmpty()) {
-                                val member = event.member.get()
-                                response = event.guild.flatMap { it.getChannelById(event.message.channelId) }
-                                    .flatMap { it.getEffectivePermissions(member.id) }
-                                    .map { cmd.requiresPermissions.and(it).rawValue == cmd.requiresPermissions.rawValue }
-                                    .flatMap {
-                                        val innerResponse: Mono<Any>
-                                        if (it) {
-                                            innerResponse = cmd.invoke(harmony, event, args)
-                                        } else {
-                                            innerResponse = Mono.justOrEmpty(options.commandErrorSignalHandler(harmony, event, CommandErrorSignal("Invalid permissions!")))
-                                        }
-                                        return@flatMap innerResponse
-                                    }
+                .subscribe()
+    }
+
+    /**
+     * Matches a single message's prefix and command name.
+     *
+     * @param event The message event.
+     * @return A mono of the match, empty if the message isn't a command.
+     */
+    private fun match(event: MessageCreateEvent): Mono<CommandMatch> {
+        // Only wait on the cache when the prefix isn't loaded yet, other messages are matched synchronously
+        val author = event.message.author
+        val pending = if (author.isPresent && !author.get().isBot) prefixCache?.prefetch(event) else null
+        return if (pending == null)
+            Mono.justOrEmpty(preDispatch(event))
+        else
+            pending.flatMap { prefixes -> Mono.justOrEmpty(preDispatch(event, prefixes)) }
+    }
+
+    /**
+     * Checks for typos if the command name of a match wasn't recognized, executing the suggested command once the user
+     * confirms it. Waiting for the user can take a while, so this is done as part of the reply rather than holding up
+     * dispatch.
+     */
+    private fun resolve(match: CommandMatch): Mono<Mono<Void>> {
+        if (!options.typoChecking.isEnabled)
+            return Mono.empty()
+
+        return Mono.just(options.typoChecking.value.checkForTypos(harmony, match.event, match.commandName)
+                .flatMap { suggestion -> Mono.justOrEmpty<InvocableCommand>(registry[suggestion]
+                        ?.takeIf { registry.isVisible(it, match.event.guildId.orElse(null)) }) }
+                .flatMap { cmd -> execute(match.withCommand(cmd)) }
+                .flatMap { reply -> reply })
+    }
+
+    /**
+     * Executes the command of a match, subject to rate limits, bulkheads and isolation.
+     */
+    private fun execute(match: CommandMatch): Mono<Mono<Void>> {
+        val event = match.event
+        val cmd = match.command!!
+        val args = tokenize(match.content, match.argsStart)
+
+        val execution: Mono<Mono<Void>>
+        try {
+            if (isThrottled(cmd, event.message.author.get().id.asLong()))
+                return Mono.empty()
+
+            val scheduler = cmd.scheduler
+            val invocation = Mono.defer { invoke(cmd, event, args) }
+            execution = resolveReply(event, if (scheduler == null) invocation else invocation
+                    .subscribeOn(scheduler)
+                    .subscriberContext { it.put(CommandContext.ISOLATED_SCHEDULER, scheduler) })
+        } catch (signal: CommandErrorSignal) {
+            return resolveReply(event, Mono.justOrEmpty(options.commandErrorSignalHandler(harmony, event, signal)))
+        }
+
+        return bulkheads?.run(cmd, event.guildId.map { it.asLong() }.orElse(null), execution) ?: execution
+    }
+
+    /**
+     * Checks the channel type and permissions and then invokes the command.
+     */
+    private fun invoke(cmd: InvocableCommand, event: MessageCreateEvent, args: Tokens): Mono<Any> {
+        var response: Mono<Any>
+        try {
+            try {
+                if ((cmd.channelType == ChannelType.DM && event.guildId.isPresent)
+                    || (cmd.channelType == ChannelType.SERVER && !event.guildId.isPresent))
+                    throw CommandErrorSignal("This command is not applicable in this channel type! It can only be executed in ${cmd.channelType.name.toLowerCase()} channels!")
+
+                if (event.guildId.isPresent && cmd.requiresPermissions != null
+                    && cmd.requiresPermissions.isNotEmpty()) {
+                    val member = event.member.get()
+                    response = event.guild.flatMap { it.getChannelById(event.message.channelId) }
+                        .flatMap { it.getEffectivePermissions(member.id) }
+                        .map { cmd.requiresPermissions.and(it).rawValue == cmd.requiresPermissions.rawValue }
+                        .flatMap {
+                            val innerResponse: Mono<Any>
+                            if (it) {
+                                innerResponse = cmd.invoke(harmony, event, args)
                             } else {
-                                response = cmd.invoke(harmony, event, args)
+                                innerResponse = Mono.justOrEmpty(options.commandErrorSignalHandler(harmony, event, CommandErrorSignal("Invalid permissions!")))
                             }
-                        } catch (signal: CommandErrorSignal) {
-                            response = Mono.justOrEmpty(options.commandErrorSignalHandler(harmony, event, signal))
+                            return@flatMap innerResponse
                         }
-                    } catch (e: Throwable) {
-                        response = Mono.justOrEmpty(options.uncaughtErrorResponseMapper(harmony, event, e))
-                    }
-
-                    return@flatMap response.flatMap { if (it is Publisher<*>) Mono.from(it) else Mono.justOrEmpty(it) }
-                            .flatMap { res ->
-                                val mapper: CommandResultMapper<Any>? = resultMappers.getOrDefault(res.javaClass, null) as? CommandResultMapper<Any>?
-                                mapper?.map(harmony, event, res)?.then() ?: Mono.empty<Void>()
-                            }
-                }
-                .onErrorContinue { throwable, obj ->
-                    println("Error caught for object $obj!")
-                    throwable.printStackTrace()
+                } else {
+                    response = cmd.invoke(harmony, event, args)
                 }
-                .subscribe()
+            } catch (signal: CommandErrorSignal) {
+                response = Mono.justOrEmpty(options.commandErrorSignalHandler(harmony, event, signal))
+            }
+        } catch (e: Throwable) {
+            response = Mono.justOrEmpty(options.uncaughtErrorResponseMapper(harmony, event, e))
+        }
+        return response
+    }
+
+    /**
+     * Handles errors signalled by a command and maps its result to a reply. A command whose result is a publisher
+     * emitting another publisher is done once the first emits, the second is the reply itself.
+     */
+    @Suppress("UNCHECKED_CAST")
+    private fun resolveReply(event: MessageCreateEvent, response: Mono<Any>): Mono<Mono<Void>> = response
+            .onErrorResume(CommandErrorSignal::class.java) { signal ->
+                Mono.justOrEmpty(options.commandErrorSignalHandler(harmony, event, signal))
+            }
+            .onErrorResume { e -> Mono.justOrEmpty(options.uncaughtErrorResponseMapper(harmony, event, e)) }
+            .flatMap { if (it is Publisher<*>) Mono.from(it) else Mono.justOrEmpty(it) }
+            .map { res ->
+                if (res is Publisher<*>) return@map Flux.from(res).then()
+
+                val mapper: CommandResultMapper<Any>? = resultMappers.getOrDefault(res.javaClass, null) as? CommandResultMapper<Any>?
+                mapper?.map(harmony, event, res)?.then() ?: Mono.empty<Void>()
+            }
+
+    /**
+     * Checks the user's rate limit and then the command's cooldown. This happens before any permission checks or
+     * argument mapping so that throttled invocations are as cheap as possible.
+     *
+     * @param cmd The command being invoked.
+     * @param userId The id of the user invoking it.
+     * @return True if the invocation should be silently dropped.
+     * @throws CommandErrorSignal If the invocation is throttled and the user should be notified.
+     */
+    private fun isThrottled(cmd: InvocableCommand, userId: Long): Boolean {
+        var wait = userLimiter?.tryAcquire(userId) ?: 0
+        if (wait == 0L) wait = cmd.limiter?.tryAcquire(userId) ?: 0
+        if (wait == 0L) return false
+
+        if (options.throttlePolicy == ThrottlePolicy.DROP || noticeLimiter.tryAcquire(userId) != 0L) return true
+
+        val seconds = maxOf(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1))
+        throw CommandErrorSignal("You're doing that too often! Try again in ${seconds}s.")
+    }
+
+    /**
+     * The synchronous pre-dispatch stage. This locates the prefix (or mention), the command name and the start of the
+     * arguments purely by scanning indexes over the message content so that non-command messages are cheap to discard.
+     *
+     * @param event The event to check.
+     * @return The match if the message is prefixed and contains a command name, else null.
+     */
+    fun preDispatch(event: MessageCreateEvent): CommandMatch? {
+        val author = event.message.author
+        if (!author.isPresent || author.get().isBot) return null
+
+        val prefixes = if (event.guildId.isPresent)
+            options.prefix.getGuildPrefixes(event.guildId.get(), event.message.channelId)
+        else
+            options.prefix.getDmPrefixes(author.get().id)
+        return preDispatch(event, prefixes)
+    }
+
+    /**
+     * The synchronous pre-dispatch stage, with prefixes which have already been looked up.
+     *
+     * @param event The event to check.
+     * @param prefixes The prefixes of the event's guild or dm.
+     * @return The match if the message is prefixed and contains a command name, else null.
+     */
+    fun preDispatch(event: MessageCreateEvent, prefixes: Set<String>): CommandMatch? {
+        val message = event.message
+        val author = message.author
+        if (!author.isPresent || author.get().isBot) return null
+
+        val content = message.content
+        val prefixEnd = prefixTries.get(prefixes).match(content)
+        if (prefixEnd < 0) return null
+
+        val nameStart = CommandMatch.skipWhitespace(content, prefixEnd)
+        if (nameStart == content.length) return null
+
+        val nameEnd = CommandMatch.findWhitespace(content, nameStart)
+        val command = registry.find(content, nameStart, nameEnd)
+                ?.takeIf { registry.isVisible(it, event.guildId.orElse(null)) }
+        if (command == null && !options.typoChecking.isEnabled) return null
+
+        return CommandMatch(event, content, nameStart, nameEnd, CommandMatch.skipWhitespace(content, nameEnd), command)
     }
 
     override fun registerCommand(invocableCommand: InvocableCommand) {
-        commands[invocableCommand.name] = invocableCommand
-        if (invocableCommand.aliases != null)
-            invocableCommand.aliases.forEach { commands[it] = invocableCommand }
+        registry.register(invocableCommand)
     }
 }
@@ -14,6 +14,9 @@ import harmony.Harmony
 import harmony.command.interfaces.ArgumentMappingException
 import harmony.command.interfaces.CommandArgumentMapper
 import harmony.command.interfaces.CommandResultMapper
+import harmony.command.interfaces.MappingResult
+import harmony.command.interfaces.SyncCommandArgumentMapper
+import harmony.command.util.ArgumentParsers
 import harmony.util.Embed
 import reactor.core.publisher.Mono
 import java.util.*
@@ -33,19 +36,19 @@ internal fun getAllResultMappers(): Map<Class<*>, CommandResultMapper<*>> = Serv
 
 val resultMappers: Map<Class<*>, CommandResultMapper<*>> by lazy { getAllResultMappers() }
 
-// Default Mappers: TODO add support for Long and Float
+// Default Mappers: TODO add support for Float
 @WireService(CommandArgumentMapper::class)
-class ContextArgumentMapper : CommandArgumentMapper<CommandContext> {
+class ContextArgumentMapper : SyncCommandArgumentMapper<CommandContext> {
     override fun accepts() = CommandContext::class.java
 
-    override fun map(context: CommandContext, token: String) = Mono.just(context)
+    override fun tryMap(context: CommandContext, token: String) = MappingResult.success(context)
 }
 
 @WireService(CommandArgumentMapper::class)
-class StringArgumentMapper : CommandArgumentMapper<String> {
+class StringArgumentMapper : SyncCommandArgumentMapper<String> {
     override fun accepts() = String::class.java
 
-    override fun map(context: CommandContext, token: String) = Mono.just(token)
+    override fun tryMap(context: CommandContext, token: String) = MappingResult.success(token)
 }
 
 @WireService(CommandResultMapper::class)
@@ -57,16 +60,15 @@ class StringResultMapper : CommandResultMapper<String> {
 }
 
 @WireService(CommandArgumentMapper::class)
-class IntegerWrapperArgumentMapper : CommandArgumentMapper<java.lang.Integer> {
+class IntegerWrapperArgumentMapper : SyncCommandArgumentMapper<java.lang.Integer> {
     override fun accepts(): Class<java.lang.Integer> = java.lang.Integer::class.java
 
-    override fun map(context: CommandContext, token: String): Mono<java.lang.Integer> {
-        try {
-            return Mono.just(java.lang.Integer.parseInt(token) as java.lang.Integer)
-        } catch (e: Throwable) {
-            return Mono.error(ArgumentMappingException())
-        }
+    override fun tryMap(context: CommandContext, token: String): MappingResult<java.lang.Integer> {
+        if (!ArgumentParsers.isInt(token)) return MappingResult.failure()
+        return MappingResult.success(java.lang.Integer.parseInt(token) as java.lang.Integer)
     }
+
+    override fun canAccept(token: String) = ArgumentParsers.isInt(token)
 }
 
 @WireService(CommandResultMapper::class)
@@ -78,16 +80,15 @@ class IntegerWrapperResultMapper : CommandResultMapper<java.lang.Integer> {
 }
 
 @WireService(CommandArgumentMapper::class)
-class IntPrimitiveArgumentMapper : CommandArgumentMapper<Int> {
+class IntPrimitiveArgumentMapper : SyncCommandArgumentMapper<Int> {
     override fun accepts(): Class<Int> = java.lang.Integer.TYPE
 
-    override fun map(context: CommandContext, token: String): Mono<Int> {
-        try {
-            return Mono.just(java.lang.Integer.parseInt(token))
-        } catch (e: Throwable) {
-            return Mono.error(ArgumentMappingException())
-        }
+    override fun tryMap(context: CommandContext, token: String): MappingResult<Int> {
+        if (!ArgumentParsers.isInt(token)) return MappingResult.failure()
+        return MappingResult.success(java.lang.Integer.parseInt(token))
     }
+
+    override fun canAccept(token: String) = ArgumentParsers.isInt(token)
 }
 
 @WireService(CommandResultMapper::class)
@@ -99,16 +100,55 @@ class IntPrimitiveResultMapper : CommandResultMapper<Int> {
 }
 
 @WireService(CommandArgumentMapper::class)
-class BooleanWrapperArgumentMapper : CommandArgumentMapper<java.lang.Boolean> {
+class LongWrapperArgumentMapper : SyncCommandArgumentMapper<java.lang.Long> {
+    override fun accepts(): Class<java.lang.Long> = java.lang.Long::class.java
+
+    override fun tryMap(context: CommandContext, token: String): MappingResult<java.lang.Long> {
+        if (!ArgumentParsers.isLong(token)) return MappingResult.failure()
+        return MappingResult.success(java.lang.Long.parseLong(token) as java.lang.Long)
+    }
+
+    override fun canAccept(token: String) = ArgumentParsers.isLong(token)
+}
+
+@WireService(CommandResultMapper::class)
+class LongWrapperResultMapper : CommandResultMapper<java.lang.Long> {
+    override fun accepts(): Class<java.lang.Long> = java.lang.Long::class.java
+
+    override fun map(harmony: Harmony, event: MessageCreateEvent, obj: java.lang.Long): Mono<*>?
+            = event.message.channel.flatMap { it.createMessage("$obj") }
+}
+
+@WireService(CommandArgumentMapper::class)
+class LongPrimitiveArgumentMapper : SyncCommandArgumentMapper<Long> {
+    override fun accepts(): Class<Long> = java.lang.Long.TYPE
+
+    override fun tryMap(context: CommandContext, token: String): MappingResult<Long> {
+        if (!ArgumentParsers.isLong(token)) return MappingResult.failure()
+        return MappingResult.success(java.lang.Long.parseLong(token))
+    }
+
+    override fun canAccept(token: String) = ArgumentParsers.isLong(token)
+}
+
+@WireService(CommandResultMapper::class)
+class LongPrimitiveResultMapper : CommandResultMapper<Long> {
+    override fun accepts(): Class<Long> = java.lang.Long.TYPE
+
+    override fun map(harmony: Harmony, event: MessageCreateEvent, obj: Long): Mono<*>?
+            = event.message.channel.flatMap { it.createMessage("$obj") }
+}
+
+@WireService(CommandArgumentMapper::class)
+class BooleanWrapperArgumentMapper : SyncCommandArgumentMapper<java.lang.Boolean> {
     override fun accepts(): Class<java.lang.Boolean> = java.lang.Boolean::class.java
 
-    override fun map(context: CommandContext, token: String): Mono<java.lang.Boolean> {
-        try {
-            return Mono.just(java.lang.Boolean.parseBoolean(token) as java.lang.Boolean)
-        } catch (e: Throwable) {
-            return Mono.error(ArgumentMappingException())
-        }
+    override fun tryMap(context: CommandContext, token: String): MappingResult<java.lang.Boolean> {
+        if (!ArgumentParsers.isBoolean(token)) return MappingResult.failure()
+        return MappingResult.success(token.equals("true", true) as java.lang.Boolean)
     }
+
+    override fun canAccept(token: String) = ArgumentParsers.isBoolean(token)
 }
 
 @WireService(CommandResultMapper::class)
@@ -120,16 +160,15 @@ class BooleanWrapperResultMapper : CommandResultMapper<java.lang.Boolean> {
 }
 
 @WireService(CommandArgumentMapper::class)
-class BooleanPrimitiveArgumentMapper : CommandArgumentMapper<Boolean> {
+class BooleanPrimitiveArgumentMapper : SyncCommandArgumentMapper<Boolean> {
     override fun accepts(): Class<Boolean> = java.lang.Boolean.TYPE
 
-    override fun map(context: CommandContext, token: String): Mono<Boolean> {
-        try {
-            return Mono.just(java.lang.Boolean.parseBoolean(token))
-        } catch (e: Throwable) {
-            return Mono.error(ArgumentMappingException())
-        }
+    override fun tryMap(context: CommandContext, token: String): MappingResult<Boolean> {
+        if (!ArgumentParsers.isBoolean(token)) return MappingResult.failure()
+        return MappingResult.success(token.equals("true", true))
     }
+
+    override fun canAccept(token: String) = ArgumentParsers.isBoolean(token)
 }
 
 @WireService(CommandResultMapper::class)
@@ -141,16 +180,15 @@ class BooleanPrimitiveResultMapper : CommandResultMapper<Boolean> {
 }
 
 @WireService(CommandArgumentMapper::class)
-class DoubleWrapperArgumentMapper : CommandArgumentMapper<java.lang.Double> {
+class DoubleWrapperArgumentMapper : SyncCommandArgumentMapper<java.lang.Double> {
     override fun accepts(): Class<java.lang.Double> = java.lang.Double::class.java
 
-    override fun map(context: CommandContext, token: String): Mono<java.lang.Double> {
-        try {
-            return Mono.just(java.lang.Double.parseDouble(token) as java.lang.Double)
-        } catch (e: Throwable) {
-            return Mono.error(ArgumentMappingException())
-        }
+    override fun tryMap(context: CommandContext, token: String): MappingResult<java.lang.Double> {
+        if (!ArgumentParsers.isDouble(token)) return MappingResult.failure()
+        return MappingResult.success(java.lang.Double.parseDouble(token) as java.lang.Double)
     }
+
+    override fun canAccept(token: String) = ArgumentParsers.isDouble(token)
 }
 
 @WireService(CommandResultMapper::class)
@@ -162,16 +200,15 @@ class DoubleWrapperResultMapper : CommandResultMapper<java.lang.Double> {
 }
 
 @WireService(CommandArgumentMapper::class)
-class DoublePrimitiveArgumentMapper : CommandArgumentMapper<Double> {
+class DoublePrimitiveArgumentMapper : SyncCommandArgumentMapper<Double> {
     override fun accepts(): Class<Double> = java.lang.Double.TYPE
 
-    override fun map(context: CommandContext, token: String): Mono<Double> {
-        try {
-            return Mono.just(java.lang.Double.parseDouble(token))
-        } catch (e: Throwable) {
-            return Mono.error(ArgumentMappingException())
-        }
+    override fun tryMap(context: CommandContext, token: String): MappingResult<Double> {
+        if (!ArgumentParsers.isDouble(token)) return MappingResult.failure()
+        return MappingResult.success(java.lang.Double.parseDouble(token))
     }
+
+    override fun canAccept(token: String) = ArgumentParsers.isDouble(token)
 }
 
 @WireService(CommandResultMapper::class)
@@ -184,51 +221,45 @@ class DoublePrimitiveResultMapper : CommandResultMapper<Double> {
 
 private fun containsMention(token: String) = token.startsWith("<@") && token.endsWith(">")
 
+private fun couldBeUser(token: String) = TokenShape.classify(token) == TokenShape.USER_MENTION
+        || ArgumentParsers.isSnowflake(token) || token.contains('#')
+
 @Suppress("UNUSED_PARAMETER")
 private fun userMention2Id(context: CommandContext, token: String): Snowflake? {
-    try {
-        return Snowflake.of(token.removePrefix("<")
-                .removePrefix("@")
-                .removePrefix("!")
-                .removeSuffix(">"))
-    } catch (e: Throwable) {
-        return null
-    }
+    return ArgumentParsers.toSnowflake(token.removePrefix("<")
+            .removePrefix("@")
+            .removePrefix("!")
+            .removeSuffix(">"))
 }
 
 private fun username2Id(context: CommandContext, token: String): Mono<Snowflake> {
     // FIXME: Right now it only retrieves users by name if discrim is provided and the user is in the current server
     if (token.contains("#")) {
-        val potentialDiscrim = token.split("#")[-1]
-        if (potentialDiscrim.length == 4) {
-            try {
-                Integer.parseInt(potentialDiscrim)  // Make sure its a number
-
-                if (context.server != null) {
-                    return context.server.members
-                            .filter { it.discriminator == potentialDiscrim }
-                            .filter { it.username == token || (it.nickname.isPresent && it.nickname.get() == token) }
-                            .next()
-                            .map { it.id }
-                }
-            } catch (e: Throwable) {}
+        val potentialDiscrim = token.substringAfterLast("#")
+        if (potentialDiscrim.length == 4 && ArgumentParsers.isInt(potentialDiscrim) && context.server != null) {
+            return context.server.members
+                    .filter { it.discriminator == potentialDiscrim }
+                    .filter { it.username == token || (it.nickname.isPresent && it.nickname.get() == token) }
+                    .next()
+                    .map { it.id }
         }
     } else {
-        try {
-            return Mono.just(Snowflake.of(token))
-        } catch (e: Throwable) {}
+        return Mono.justOrEmpty(ArgumentParsers.toSnowflake(token))
     }
     return Mono.empty()
 }
 
 // Discord specific
 @WireService(CommandArgumentMapper::class)
-class SnowflakeArgumentMapper : CommandArgumentMapper<Snowflake> {
+class SnowflakeArgumentMapper : SyncCommandArgumentMapper<Snowflake> {
     override fun accepts(): Class<Snowflake> = Snowflake::class.java
 
-    override fun map(context: CommandContext, token: String): Mono<Snowflake> {
-        return Mono.fromSupplier { Snowflake.of(token) }
+    override fun tryMap(context: CommandContext, token: String): MappingResult<Snowflake> {
+        if (!ArgumentParsers.isSnowflake(token)) return MappingResult.failure()
+        return MappingResult.success(Snowflake.of(token))
     }
+
+    override fun canAccept(token: String) = ArgumentParsers.isSnowflake(token)
 }
 
 @WireService(CommandResultMapper::class)
@@ -254,6 +285,8 @@ class UserArgumentMapper : CommandArgumentMapper<User> {
             }
         }
     }
+
+    override fun canAccept(token: String) = couldBeUser(token)
 }
 
 @WireService(CommandResultMapper::class)
@@ -280,6 +313,8 @@ class MemberArgumentMapper : CommandArgumentMapper<Member> {
             }
         }
     }
+
+    override fun canAccept(token: String) = couldBeUser(token)
 }
 
 @WireService(CommandResultMapper::class)
@@ -301,16 +336,15 @@ class RoleArgumentMapper : CommandArgumentMapper<Role> {
         return Mono.just(token)
                 .flatMap {  token ->
                     if (containsMention(token) && token.startsWith("<@&"))  {
-                        val id = Snowflake.of(token.removePrefix("<@&")
-                                .removeSuffix(">"))
+                        val id = ArgumentParsers.toSnowflake(token.removePrefix("<@&")
+                                .removeSuffix(">")) ?: return@flatMap Mono.error<Role>(ArgumentMappingException())
                         return@flatMap context.server.getRoleById(id)
                     } else {
-                        try {
-                            val id = Snowflake.of(token)
+                        val id = ArgumentParsers.toSnowflake(token)
+                        if (id != null)
                             return@flatMap context.server.getRoleById(id).switchIfEmpty(context.server.roles.filter { it.name == token }.next())
-                        } catch (e: Throwable) {
+                        else
                             return@flatMap context.server.roles.filter { it.name == token }.next()
-                        }
                     }
                 }.onErrorMap { ArgumentMappingException() }
     }
@@ -335,17 +369,16 @@ abstract class AbstractChannelArgumentMapper<T: Channel> : CommandArgumentMapper
         return Mono.just(token)
                 .flatMap {  token ->
                     if (token.startsWith("<#") && token.endsWith(">"))  {
-                        val id = Snowflake.of(token.removePrefix("<#")
-                                .removeSuffix(">"))
+                        val id = ArgumentParsers.toSnowflake(token.removePrefix("<#")
+                                .removeSuffix(">")) ?: return@flatMap Mono.error<T>(ArgumentMappingException())
                         return@flatMap context.server.getChannelById(id).cast(accepts()).switchIfEmpty(context.client.getChannelById(id).cast(accepts()))
                     } else {
-                        try {
-                            val id = Snowflake.of(token)
+                        val id = ArgumentParsers.toSnowflake(token)
+                        if (id != null)
                             return@flatMap context.server.getChannelById(id).cast(accepts()).switchIfEmpty(context.client.getChannelById(id).cast(accepts()))
                                     .switchIfEmpty(context.server.channels.filter { it.name == token }.next().cast(accepts()))
-                        } catch (e: Throwable) {
+                        else
                             return@flatMap context.server.channels.filter { it.name == token }.next().cast(accepts())
-                        }
                     }
                 }.onErrorMap { ArgumentMappingException() }
     }
@@ -419,12 +452,11 @@ class ServerArgumentMapper : CommandArgumentMapper<Guild> {
 
         return Mono.just(token)
                 .flatMap {  token ->
-                    try {
-                        val id = Snowflake.of(token)
+                    val id = ArgumentParsers.toSnowflake(token)
+                    if (id != null)
                         return@flatMap context.client.getGuildById(id).switchIfEmpty(context.client.guilds.filter { it.name == token }.next())
-                    } catch (e: Throwable) {
+                    else
                         return@flatMap context.client.guilds.filter { it.name == token }.next()
-                    }
                 }.onErrorMap { ArgumentMappingException() }
     }
 }
@@ -5,9 +5,10 @@ import discord4j.core.event.domain.message.MessageCreateEvent
 import discord4j.rest.util.PermissionSet
 import harmony.Harmony
 import harmony.command.annotations.*
-import harmony.command.interfaces.CommandArgumentMapper
+import harmony.command.util.CommandCall
 import harmony.command.util.CommandLambdaFunction
 import harmony.command.util.CommandWrapper
+import harmony.command.util.CompiledCommands
 import harmony.command.util.ProcessorUtils.methodHash
 import harmony.util.InvokeHandle
 import reactor.core.publisher.Flux
@@ -17,6 +18,7 @@ import java.io.InputStream
 import java.io.InputStreamReader
 import java.lang.RuntimeException
 import java.lang.reflect.Method
+import java.time.Duration
 import java.util.*
 
 /**
@@ -32,17 +34,49 @@ interface CommandScanner {
     fun scan(): Flux<InvocableCommand>
 }
 
+/**
+ * An [InvokeHandle] which calls a responder through its generated [CommandLambdaFunction].
+ *
+ * @param function The generated function.
+ * @param parameterTypes The parameter types of the responder.
+ */
+class CommandLambdaHandle(private val function: CommandLambdaFunction,
+                          parameterTypes: Array<Class<*>>) : InvokeHandle {
+
+    private val tokenHandler = CommandTokenizer(parameterTypes.map { argumentMappers[it]!! }.toTypedArray())
+
+    override fun prepare(harmony: Harmony, event: MessageCreateEvent, tokens: Tokens): Mono<CommandCall> {
+        return function.call(tokenHandler, harmony, event, tokens)
+    }
+}
+
 /**
  * The default scanner, leverages annotation processing to quickly detect commands annotated with [Command].
  *
+ * Commands are built by the [CompiledCommands] implementations generated at compile time. Reflection is only used as
+ * a fallback for listed command classes which no registry builds.
+ *
  * @see HarmonyAnnotationProcessor
  */
 class AnnotationProcessorScanner : CommandScanner {
 
-    override fun scan(): Flux<InvocableCommand> = openInternalFile("harmony.commands")
+    override fun scan(): Flux<InvocableCommand> {
+        val compiled = ServiceLoader.load(CompiledCommands::class.java).toList()
+        if (compiled.isEmpty())
+            return scanReflectively { true }
+
+        // Commands missing from the generated registries are still built reflectively rather than silently dropped
+        val covered = compiled.flatMapTo(HashSet()) { it.commandClasses() }
+        return Flux.fromIterable(compiled).flatMapIterable { it.commands() }
+            .concatWith(scanReflectively { it !in covered })
+    }
+
+    private fun scanReflectively(include: (String) -> Boolean): Flux<InvocableCommand> = openInternalFile("harmony.commands")
+        .map { it.trim() }
+        .filter(include)
         .map {
             @Suppress("DEPRECATION")
-            Class.forName(it.strip())
+            Class.forName(it)
         }
             .map { instantiateCommandClass(it) }
             .map { compileClass(it) }
@@ -75,21 +109,8 @@ class AnnotationProcessorScanner : CommandScanner {
         throw RuntimeException("No applicable constructor found!")
     }
 
-    private fun makeHandle(obj: Any, method: Method, wrapper: CommandWrapper, index: Int): InvokeHandle = object: InvokeHandle {
-        val converters: Array<CommandArgumentMapper<*>>
-        val tokenHandler: CommandTokenizer
-        val function: CommandLambdaFunction
-
-        init {
-            converters = method.parameterTypes.map { argumentMappers[it]!! }.toTypedArray()
-            tokenHandler = CommandTokenizer(converters)
-            function = wrapper.functions()[index]
-        }
-
-        override fun tryInvoke(harmony: Harmony, event: MessageCreateEvent, tokens: Deque<String>): Mono<Any> {
-            return function.call(tokenHandler, harmony, event, tokens)
-        }
-    }
+    private fun makeHandle(method: Method, wrapper: CommandWrapper, index: Int): InvokeHandle =
+            CommandLambdaHandle(wrapper.functions()[index], method.parameterTypes)
 
     private fun compileClass(instance: Any): InvocableCommand {
         val clazz = instance::class.java
@@ -118,6 +139,16 @@ class AnnotationProcessorScanner : CommandScanner {
         else
             null
 
+        val cooldown = if (clazz.isAnnotationPresent(Cooldown::class.java))
+            clazz.getAnnotation(Cooldown::class.java).let { RateLimit(it.uses, Duration.ofNanos(it.unit.toNanos(it.value))) }
+        else
+            null
+
+        val isolatedThreads = if (clazz.isAnnotationPresent(Isolated::class.java))
+            clazz.getAnnotation(Isolated::class.java).value
+        else
+            null
+
         val responderMethods = instance::class.java.methods
                 .filter { it.isAnnotationPresent(Responder::class.java) }
 
@@ -142,25 +173,7 @@ class AnnotationProcessorScanner : CommandScanner {
         val responderTree = Tree()
         responderMethods.sortedBy { methodHash(it) }
                 .forEachIndexed { i, it ->
-                    var currNode: Node = responderTree
-                    if (it.parameterCount == 0
-                            || (it.parameterCount == 1 && CommandContext::class.java.isAssignableFrom(it.parameterTypes[0]))) {
-                        currNode.obj = makeHandle(instance, it, commandWrapper, i)
-                    } else {
-                        for (param in it.parameterTypes) {
-                            if (CommandContext::class.java.isAssignableFrom(param))
-                                continue
-
-                            if (param in currNode.children.keys) {
-                                currNode = currNode.children[param]!!
-                            } else {
-                                val newNode = Node(param)
-                                currNode.addChild(newNode)
-                                currNode = newNode
-                            }
-                        }
-                        currNode.obj = makeHandle(instance, it, commandWrapper, i)
-                    }
+                    responderTree.addResponder(it.parameterTypes, makeHandle(it, commandWrapper, i))
                 }
 
         return InvocableCommand(
@@ -172,7 +185,9 @@ class AnnotationProcessorScanner : CommandScanner {
                 channelType,
                 servers,
                 variantInfo,
-                responderTree
+                responderTree,
+                cooldown,
+                isolatedThreads
         )
     }
 }
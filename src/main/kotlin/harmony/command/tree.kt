@@ -1,5 +1,7 @@
 package harmony.command
 
+import discord4j.common.util.Snowflake
+import harmony.command.interfaces.CommandArgumentMapper
 import harmony.util.InvokeHandle
 
 /**
@@ -23,12 +25,149 @@ class Node(val type: Class<*> = Void::class.java,
         node.parent = this
         _children[node.type] = node
     }
+
+    /**
+     * Adds a responder below this node, creating any intermediate nodes needed. [CommandContext] arguments are ignored
+     * as they are not provided by tokens.
+     *
+     * @param types The argument types the responder takes.
+     * @param handle The responder implementation.
+     */
+    fun addResponder(types: Array<Class<*>>, handle: InvokeHandle) {
+        var currNode = this
+        for (type in types) {
+            if (CommandContext::class.java.isAssignableFrom(type))
+                continue
+
+            currNode = currNode.children[type] ?: Node(type).also { currNode.addChild(it) }
+        }
+        currNode.obj = handle
+    }
 }
 
 typealias Tree = Node
 
+/**
+ * A responder that can be dispatched to.
+ *
+ * @param handle The handler implementation.
+ * @param types The (non-context) argument types the handler takes.
+ */
+class DispatchCandidate(val handle: InvokeHandle, val types: Array<Class<*>>) {
+
+    /**
+     * The number of (non-context) arguments the handler takes.
+     */
+    val arity: Int
+        get() = types.size
+
+    /**
+     * Whether the final argument is a string, allowing excess tokens to be collapsed into it.
+     */
+    val collapsesTail: Boolean = types.isNotEmpty() && types.last() == String::class.java
+
+    /**
+     * How strict the argument types are, candidates with more specific types are attempted first.
+     */
+    val specificity: Int = types.sumBy { specificityOf(it) }
+
+    private val mappers: Array<CommandArgumentMapper<*>?> = Array(types.size) { argumentMappers[types[it]] }
+
+    /**
+     * Cheaply checks whether the tokens could be mapped to this candidate's arguments without running any mappers.
+     *
+     * @param tokens The tokens provided by the user.
+     * @param tokenCount The number of tokens, as counted by [DispatchTable.countTokens].
+     * @return False if the tokens can never be mapped by this candidate.
+     */
+    fun canAccept(tokens: Tokens, tokenCount: Int): Boolean {
+        for (i in 0 until minOf(arity, tokenCount)) {
+            if (i == arity - 1 && tokenCount > arity) return true  // Collapsed into a trailing string
+            if (mappers[i]?.canAccept(tokens[i]) == false) return false
+        }
+        return true
+    }
+
+    /**
+     * Adapts tokens to this candidate's arity. Excess tokens are either collapsed into the trailing string argument or,
+     * for handlers without arguments, dropped.
+     *
+     * @param tokens The tokens provided by the user.
+     * @return The tokens to pass to the handler.
+     */
+    fun adapt(tokens: Tokens): Tokens = tokens.collapse(arity)
+
+    private companion object {
+
+        fun specificityOf(type: Class<*>): Int = when {
+            type == String::class.java || type == Any::class.java -> 0
+            type.isPrimitive || type.isEnum || Number::class.java.isAssignableFrom(type)
+                    || type == java.lang.Boolean::class.java || type == Snowflake::class.java -> 2
+            else -> 1  // Entities such as users or channels can also be looked up by name
+        }
+    }
+}
+
+/**
+ * A responder tree compiled into a table indexed by the number of tokens provided. Each entry lists the applicable
+ * candidates in priority order: handlers taking exactly that many arguments, then handlers whose trailing string
+ * argument can absorb the excess tokens (most arguments first), then the no-argument handler. Handlers with the same
+ * number of arguments are ordered by how specific their argument types are.
+ *
+ * @param tree The responder tree to compile.
+ */
+class DispatchTable(tree: Tree) {
+
+    private val table: Array<Array<DispatchCandidate>>
+
+    init {
+        val byArity = mutableListOf<List<DispatchCandidate>>()
+        var level = listOf(tree to emptyArray<Class<*>>())
+        while (level.isNotEmpty()) {
+            val candidates = mutableListOf<DispatchCandidate>()
+            val nextLevel = mutableListOf<Pair<Node, Array<Class<*>>>>()
+            for ((node, types) in level) {
+                if (node.obj != null)
+                    candidates.add(DispatchCandidate(node.obj!!, types))
+                node.children.values.forEach { nextLevel.add(it to types + it.type) }
+            }
+            byArity.add(candidates.asReversed().sortedByDescending { it.specificity })
+            level = nextLevel
+        }
+
+        // The final entry covers every token count larger than the largest arity
+        table = Array(byArity.size + 1) { tokenCount ->
+            val candidates = mutableListOf<DispatchCandidate>()
+            if (tokenCount < byArity.size)
+                candidates.addAll(byArity[tokenCount])
+            for (arity in minOf(tokenCount, byArity.size) - 1 downTo 1)
+                byArity[arity].filterTo(candidates) { it.collapsesTail }
+            if (tokenCount > 0)
+                candidates.addAll(byArity[0])
+            candidates.toTypedArray()
+        }
+    }
+
+    /**
+     * Counts tokens as far as they affect dispatching, every count past the largest arity shares the same candidates.
+     * This only scans the tokens which could be passed to a responder individually.
+     *
+     * @param tokens The tokens provided by the user.
+     * @return The number of tokens, capped to one more than the largest arity.
+     */
+    fun countTokens(tokens: Tokens): Int = tokens.countUpTo(table.size - 1)
+
+    /**
+     * Retrieves the candidates for a given number of tokens.
+     *
+     * @param tokenCount The number of tokens provided.
+     * @return The candidates, in priority order.
+     */
+    fun candidates(tokenCount: Int): Array<DispatchCandidate> = table[minOf(tokenCount, table.size - 1)]
+}
+
+@Deprecated("Use a precompiled DispatchTable instead", ReplaceWith("DispatchTable(tree).candidates(maxParamCount)"))
 fun generateCandidates(tree: Tree, maxParamCount: Int): List<InvokeHandle> { // Do a BFS over the tree up to the max level
-    //TODO prioritize non-string types
     var currLevel = 0
 
     var level = listOf(tree)
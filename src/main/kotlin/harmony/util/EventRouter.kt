@@ -0,0 +1,88 @@
+package harmony.util
+
+import discord4j.common.util.Snowflake
+import discord4j.core.GatewayDiscordClient
+import discord4j.core.event.domain.Event
+import discord4j.core.event.domain.message.MessageCreateEvent
+import discord4j.core.event.domain.message.ReactionAddEvent
+import reactor.core.publisher.Flux
+import reactor.core.publisher.FluxSink
+import java.time.Duration
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Routes events of a type to listeners by a key, through a single subscription to the client. Routing an event is a
+ * single map lookup, no matter how many listeners there are.
+ *
+ * @param client The client to receive events from.
+ * @param type The type of events to route.
+ * @param key Extracts the key of an event, events without a key are dropped.
+ */
+class EventRouter<K : Any, E : Event>(client: GatewayDiscordClient, type: Class<E>, private val key: (E) -> K?) {
+
+    private val routes = ConcurrentHashMap<K, List<FluxSink<E>>>()
+
+    init {
+        client.on(type).subscribe { event ->
+            key(event)?.let { routes[it] }?.forEach { it.next(event) }
+        }
+    }
+
+    /**
+     * The number of keys currently listened to.
+     */
+    val size: Int
+        get() = routes.size
+
+    /**
+     * Listens for the events with a key. The listener is removed when the returned flux is cancelled or completes.
+     *
+     * @param key The key.
+     * @param expiry The time after which to stop listening, or null to listen until cancelled.
+     * @return The events with the key.
+     */
+    fun listen(key: K, expiry: Duration? = null): Flux<E> {
+        val events = Flux.create<E> { sink ->
+            routes.merge(key, listOf(sink)) { curr, added -> curr + added }
+            sink.onDispose {
+                routes.computeIfPresent(key) { _, curr -> (curr - sink).takeIf { it.isNotEmpty() } }
+            }
+        }
+        return if (expiry == null) events else events.take(expiry, TIMEOUTS)
+    }
+}
+
+private val reactionRouters = WeakHashMap<GatewayDiscordClient, EventRouter<Snowflake, ReactionAddEvent>>()
+
+private val replyRouters = WeakHashMap<GatewayDiscordClient, EventRouter<Long, MessageCreateEvent>>()
+
+/**
+ * The router for this client's [ReactionAddEvent]s, keyed by message id.
+ */
+val GatewayDiscordClient.reactionRouter: EventRouter<Snowflake, ReactionAddEvent>
+    get() = synchronized(reactionRouters) {
+        reactionRouters.getOrPut(this) { EventRouter(this, ReactionAddEvent::class.java) { it.messageId } }
+    }
+
+/**
+ * The router for this client's [MessageCreateEvent]s, keyed by [replyKey] of the channel and author. Keys can collide,
+ * so listeners must still check the channel and author of the events they receive.
+ */
+val GatewayDiscordClient.replyRouter: EventRouter<Long, MessageCreateEvent>
+    get() = synchronized(replyRouters) {
+        replyRouters.getOrPut(this) {
+            EventRouter(this, MessageCreateEvent::class.java) { event ->
+                event.message.author.map { replyKey(event.message.channelId, it.id) }.orElse(null)
+            }
+        }
+    }
+
+/**
+ * Packs a channel and user id into a single key for the [replyRouter].
+ *
+ * @param channelId The channel id.
+ * @param userId The user id.
+ * @return The key.
+ */
+fun replyKey(channelId: Snowflake, userId: Snowflake): Long = channelId.asLong() * 31 + userId.asLong()
@@ -2,15 +2,28 @@ package harmony.util
 
 import discord4j.core.event.domain.message.MessageCreateEvent
 import harmony.Harmony
+import harmony.command.Tokens
 import harmony.command.interfaces.ArgumentMappingException
+import harmony.command.util.CommandCall
 import reactor.core.publisher.Mono
-import java.util.*
 
 /**
  * Internal interface representing a mapped command handler.
  */
 interface InvokeHandle {
 
+    /**
+     * Maps the tokens to the handler's arguments without invoking it.
+     *
+     * @param harmony The harmony instance.
+     * @param event The event causing invocation.
+     * @param tokens The parsed tokens.
+     * @return The call invoking the handler with the mapped arguments.
+     *
+     * @throws ArgumentMappingException If the handle cannot map tokens to arguments correctly. (Within the mono)
+     */
+    fun prepare(harmony: Harmony, event: MessageCreateEvent, tokens: Tokens): Mono<CommandCall>
+
     /**
      * Invokes the command.
      *
@@ -21,5 +34,7 @@ interface InvokeHandle {
      *
      * @throws ArgumentMappingException If the handle cannot map tokens to arguments correctly. (Within the mono)
      */
-    fun tryInvoke(harmony: Harmony, event: MessageCreateEvent, tokens: Deque<String>): Mono<Any>
+    @Suppress("UNCHECKED_CAST")
+    fun tryInvoke(harmony: Harmony, event: MessageCreateEvent, tokens: Tokens): Mono<Any> =
+            prepare(harmony, event, tokens).flatMap { Mono.defer { it.call() } as Mono<Any> }
 }
\ No newline at end of file
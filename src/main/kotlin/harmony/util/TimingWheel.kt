@@ -0,0 +1,220 @@
+package harmony.util
+
+import reactor.core.Disposable
+import reactor.core.Disposables
+import reactor.core.scheduler.Scheduler
+import reactor.core.scheduler.Schedulers
+import java.time.Duration
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * The timing wheel which owns Harmony's timeouts, such as those of typo prompts, dialogs and paginators.
+ */
+val TIMEOUTS = TimingWheel()
+
+/**
+ * A hashed timing wheel. Timers are hashed into a ring of buckets by their deadline, a single thread advances through
+ * the ring once per tick and runs the timers which are due. Scheduling and cancelling a timer is O(1) no matter how many
+ * are pending, at the cost of timers only being accurate to a tick.
+ *
+ * This is a [Scheduler], so it can be passed to time-based operators such as [reactor.core.publisher.Flux.take] and
+ * [reactor.core.publisher.Mono.timeout]. Expired tasks, and tasks without a delay, run on the [executor].
+ *
+ * @param tick The duration of a tick.
+ * @param wheelSize The number of buckets, rounded up to a power of two.
+ * @param executor The scheduler to run tasks on.
+ */
+class TimingWheel @JvmOverloads constructor(tick: Duration = Duration.ofMillis(50),
+                                            wheelSize: Int = 512,
+                                            private val executor: Scheduler = Schedulers.parallel()) : Scheduler {
+
+    private val tickNanos = tick.toNanos()
+    private val mask: Int
+    private val buckets: Array<Bucket>
+    private val inserts = ConcurrentLinkedQueue<Timeout>()
+    private val cancellations = ConcurrentLinkedQueue<Timeout>()
+    private val live = AtomicLong()
+    private val lifecycle = AtomicInteger(CREATED)
+    private val startTime = System.nanoTime()
+    private val thread = Thread(::run, "harmony-timing-wheel").apply { isDaemon = true }
+    private var currentTick = 0L  // Only accessed by the wheel thread
+
+    init {
+        require(tickNanos > 0) { "The tick must be positive" }
+        require(wheelSize in 1..(1 shl 30)) { "The wheel size must be between 1 and 2^30" }
+
+        var size = 1
+        while (size < wheelSize) size = size shl 1
+        mask = size - 1
+        buckets = Array(size) { Bucket() }
+    }
+
+    /**
+     * The number of timers which have neither expired nor been cancelled.
+     */
+    val liveTimers: Long
+        get() = live.get()
+
+    override fun schedule(task: Runnable): Disposable = executor.schedule(task)
+
+    override fun schedule(task: Runnable, delay: Long, unit: TimeUnit): Disposable {
+        if (lifecycle.get() == DISPOSED) throw RejectedExecutionException("The timing wheel has been disposed")
+        if (lifecycle.get() == CREATED && lifecycle.compareAndSet(CREATED, STARTED)) thread.start()
+
+        val timeout = Timeout(task, System.nanoTime() - startTime + maxOf(0, unit.toNanos(delay)))
+        live.incrementAndGet()
+        inserts.add(timeout)
+        return timeout
+    }
+
+    override fun createWorker(): Scheduler.Worker = WheelWorker()
+
+    override fun isDisposed() = lifecycle.get() == DISPOSED
+
+    override fun dispose() {
+        if (lifecycle.getAndSet(DISPOSED) == STARTED) LockSupport.unpark(thread)
+    }
+
+    private fun run() {
+        while (lifecycle.get() != DISPOSED) {
+            val sleep = (currentTick + 1) * tickNanos - (System.nanoTime() - startTime)
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep)
+                continue
+            }
+
+            processCancellations()
+            transferInserts()
+            expire(buckets[(currentTick and mask.toLong()).toInt()])
+            currentTick++
+        }
+    }
+
+    private fun processCancellations() {
+        while (true) {
+            val timeout = cancellations.poll() ?: return
+            timeout.bucket?.remove(timeout)
+        }
+    }
+
+    private fun transferInserts() {
+        // Bounded, so a flood of timers cannot stall the wheel
+        for (i in 0 until MAX_TRANSFERS_PER_TICK) {
+            val timeout = inserts.poll() ?: return
+            if (timeout.state.get() != PENDING) continue
+
+            val ticks = timeout.deadline / tickNanos
+            timeout.rounds = (ticks - currentTick) / buckets.size
+            buckets[(maxOf(ticks, currentTick) and mask.toLong()).toInt()].add(timeout)
+        }
+    }
+
+    private fun expire(bucket: Bucket) {
+        var timeout = bucket.head
+        while (timeout != null) {
+            val next = timeout.next
+            if (timeout.rounds <= 0 || timeout.state.get() != PENDING) {
+                bucket.remove(timeout)
+                if (timeout.state.compareAndSet(PENDING, EXPIRED)) {
+                    live.decrementAndGet()
+                    executor.schedule(timeout.task)
+                }
+            } else {
+                timeout.rounds--
+            }
+            timeout = next
+        }
+    }
+
+    /**
+     * A pending task. The links are only accessed by the wheel thread.
+     */
+    private inner class Timeout(val task: Runnable, val deadline: Long) : Disposable {
+
+        val state = AtomicInteger(PENDING)
+        var rounds = 0L
+        var bucket: Bucket? = null
+        var prev: Timeout? = null
+        var next: Timeout? = null
+
+        override fun dispose() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                live.decrementAndGet()
+                cancellations.add(this)
+            }
+        }
+
+        override fun isDisposed() = state.get() != PENDING
+    }
+
+    /**
+     * A doubly linked list of timeouts.
+     */
+    private inner class Bucket {
+
+        var head: Timeout? = null
+        private var tail: Timeout? = null
+
+        fun add(timeout: Timeout) {
+            timeout.bucket = this
+            timeout.prev = tail
+            if (tail == null) head = timeout else tail!!.next = timeout
+            tail = timeout
+        }
+
+        fun remove(timeout: Timeout) {
+            if (timeout.prev == null) head = timeout.next else timeout.prev!!.next = timeout.next
+            if (timeout.next == null) tail = timeout.prev else timeout.next!!.prev = timeout.prev
+            timeout.bucket = null
+            timeout.prev = null
+            timeout.next = null
+        }
+    }
+
+    /**
+     * Tracks the tasks scheduled through it, so they can be cancelled together.
+     */
+    private inner class WheelWorker : Scheduler.Worker {
+
+        private val tasks = Disposables.composite()
+
+        override fun schedule(task: Runnable): Disposable = track(task) { this@TimingWheel.schedule(it) }
+
+        override fun schedule(task: Runnable, delay: Long, unit: TimeUnit): Disposable =
+                track(task) { this@TimingWheel.schedule(it, delay, unit) }
+
+        private fun track(task: Runnable, schedule: (Runnable) -> Disposable): Disposable {
+            if (tasks.isDisposed) throw RejectedExecutionException("The worker has been disposed")
+
+            val holder = Disposables.swap()
+            tasks.add(holder)
+            holder.update(schedule(Runnable {
+                tasks.remove(holder)
+                task.run()
+            }))
+            return holder
+        }
+
+        override fun dispose() = tasks.dispose()
+
+        override fun isDisposed() = tasks.isDisposed
+    }
+
+    private companion object {
+
+        const val CREATED = 0
+        const val STARTED = 1
+        const val DISPOSED = 2
+
+        const val PENDING = 0
+        const val CANCELLED = 1
+        const val EXPIRED = 2
+
+        const val MAX_TRANSFERS_PER_TICK = 100_000
+    }
+}
@@ -3,7 +3,6 @@ package harmony.util
 import discord4j.core.`object`.entity.Message
 import discord4j.core.`object`.entity.User
 import discord4j.core.`object`.entity.channel.MessageChannel
-import discord4j.core.event.domain.message.MessageCreateEvent
 import harmony.command.interfaces.ArgumentMappingException
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
@@ -98,8 +97,7 @@ class DialogDsl internal constructor(val channel: MessageChannel, val to: User,
         internal fun handle(): Mono<String> {
             return channel.createMessage(sayMessage)
                     .flatMap {
-                        channel.client.on(MessageCreateEvent::class.java)
-                                .filter { it.message.channelId == channel.id && it.message.author.map { a -> a.id == to.id }.orElse(false) }
+                        channel.listenForReplies(to)
                                 .flatMap {
                                     if (this.filter.test(it.message.content))
                                         Mono.just(it.message.content)
@@ -112,7 +110,7 @@ class DialogDsl internal constructor(val channel: MessageChannel, val to: User,
                                     }
                                 }.retry(retryAttempts)
                                 .next()
-                                .timeout(expiry)
+                                .timeout(expiry, TIMEOUTS)
                                 .onErrorStop()
                     }
         }
@@ -2,8 +2,13 @@ package harmony.util
 
 import discord4j.core.`object`.entity.Member
 import discord4j.core.`object`.entity.Message
+import discord4j.core.`object`.entity.User
+import discord4j.core.`object`.entity.channel.MessageChannel
+import discord4j.core.event.domain.message.MessageCreateEvent
 import discord4j.core.event.domain.message.ReactionAddEvent
 import harmony.command.interfaces.PrefixProvider
+import reactor.core.publisher.Flux
+import java.time.Duration
 import java.util.*
 
 /**
@@ -15,10 +20,28 @@ val Member.tag
 /**
  * Hook for listening to a specific message's reactions.
  *
+ * @param expiry The time after which to stop listening, or null to listen until cancelled.
  * @return The [ReactionAddEvent]s for the message.
+ *
+ * @see EventRouter
  */
-fun Message.listenForReacts()
-        = this.client.on(ReactionAddEvent::class.java).filter { it.messageId == this.id }
+@JvmOverloads
+fun Message.listenForReacts(expiry: Duration? = null): Flux<ReactionAddEvent>
+        = this.client.reactionRouter.listen(this.id, expiry)
+
+/**
+ * Hook for listening to a specific user's messages in this channel.
+ *
+ * @param user The user.
+ * @param expiry The time after which to stop listening, or null to listen until cancelled.
+ * @return The [MessageCreateEvent]s for the user's messages.
+ *
+ * @see EventRouter
+ */
+@JvmOverloads
+fun MessageChannel.listenForReplies(user: User, expiry: Duration? = null): Flux<MessageCreateEvent>
+        = this.client.replyRouter.listen(replyKey(this.id, user.id), expiry)
+        .filter { it.message.channelId == this.id && it.message.author.map { a -> a.id == user.id }.orElse(false) }
 
 /**
  * Clamps an int between a min and max.
@@ -33,4 +56,9 @@ fun <T> Optional<T>.asNullable(): T? = this.orElse(null)
 /**
  * Converts [String] to a static [PrefixProvider].
  */
-fun String.asPrefix() = PrefixProvider.staticPrefixProvider(this)
\ No newline at end of file
+fun String.asPrefix() = PrefixProvider.staticPrefixProvider(this)
+
+/**
+ * Converts a collection of [String]s to a static [PrefixProvider] accepting any of them.
+ */
+fun Collection<String>.asPrefixes() = PrefixProvider.staticPrefixProvider(this.toSet())
\ No newline at end of file
@@ -0,0 +1,180 @@
+package harmony.benchmarks
+
+import discord4j.common.ReactorResources
+import discord4j.common.retry.ReconnectOptions
+import discord4j.core.DiscordClient
+import discord4j.core.GatewayDiscordClient
+import discord4j.core.GatewayResources
+import discord4j.core.`object`.entity.Message
+import discord4j.core.`object`.entity.User
+import discord4j.core.event.EventDispatcher
+import discord4j.core.event.domain.Event
+import discord4j.core.event.domain.message.MessageCreateEvent
+import discord4j.core.retriever.EntityRetrievalStrategy
+import discord4j.core.shard.LocalShardCoordinator
+import discord4j.core.shard.MemberRequestFilter
+import discord4j.core.state.StateHolder
+import discord4j.core.state.StateView
+import discord4j.discordjson.json.ChannelData
+import discord4j.discordjson.json.MessageData
+import discord4j.discordjson.json.UserData
+import discord4j.discordjson.possible.Possible
+import discord4j.gateway.GatewayClient
+import discord4j.gateway.GatewayClientGroup
+import discord4j.gateway.GatewayReactorResources
+import discord4j.gateway.ShardInfo
+import discord4j.gateway.json.GatewayPayload
+import discord4j.gateway.json.ShardGatewayPayload
+import discord4j.rest.RestClient
+import discord4j.store.api.util.StoreContext
+import discord4j.store.jdk.JdkStoreService
+import discord4j.voice.DefaultVoiceConnectionFactory
+import discord4j.voice.VoiceReactorResources
+import harmony.Harmony
+import harmony.command.CommandOptions
+import harmony.util.Feature
+import reactor.core.publisher.Mono
+import reactor.core.publisher.MonoProcessor
+import java.time.Instant
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+
+const val SELF_ID = 100000000000000001L
+const val OWNER_ID = 100000000000000002L
+const val USER_ID = 100000000000000003L
+const val GUILD_ID = 200000000000000001L
+const val CHANNEL_ID = 300000000000000001L
+
+/**
+ * A fake token, Discord4J only decodes the bot's id from it.
+ */
+val OFFLINE_TOKEN = Base64.getEncoder().encodeToString(SELF_ID.toString().toByteArray()) + ".offline.token"
+
+/**
+ * A single shard without a gateway connection, payloads sent to it are discarded.
+ */
+private object OfflineShards : GatewayClientGroup {
+
+    override fun find(shardId: Int): Optional<GatewayClient> = Optional.empty()
+
+    override fun getShardCount(): Int = 1
+
+    override fun multicast(payload: GatewayPayload<*>): Mono<Void> = Mono.empty()
+
+    override fun unicast(payload: ShardGatewayPayload<*>): Mono<Void> = Mono.empty()
+
+    override fun logout(): Mono<Void> = Mono.empty()
+}
+
+/**
+ * A [GatewayDiscordClient] which never connects to Discord. Entities are resolved from an in-memory store and events
+ * are pushed straight into its [EventDispatcher], so synthetic events flow through the same code paths as real ones.
+ * REST requests are answered by a [SimulatedRest].
+ *
+ * @param rest The simulated REST client.
+ */
+class OfflineGateway(val rest: SimulatedRest = SimulatedRest()) {
+
+    private val messageIds = AtomicLong(400000000000000000L)
+
+    val state = StateHolder(JdkStoreService(), StoreContext(emptyMap()), Possible.absent())
+
+    val dispatcher: EventDispatcher = EventDispatcher.buffering()
+
+    val client: GatewayDiscordClient = object : GatewayDiscordClient(
+            DiscordClient.create(OFFLINE_TOKEN),
+            GatewayResources(StateView(state), dispatcher, LocalShardCoordinator.create(), MemberRequestFilter.none(),
+                    GatewayReactorResources.create(), VoiceReactorResources(ReactorResources.create()),
+                    ReconnectOptions.create(), Possible.absent()),
+            MonoProcessor.create(), OfflineShards, DefaultVoiceConnectionFactory(), EntityRetrievalStrategy.STORE) {
+
+        override fun getRestClient(): RestClient = rest
+    }
+
+    val self = User(client, userData(SELF_ID, "Harmony", true))
+
+    val owner = User(client, userData(OWNER_ID, "Owner"))
+
+    val user = userData(USER_ID, "User")
+
+    init {
+        addChannel(CHANNEL_ID)
+    }
+
+    /**
+     * Adds a text channel to the store, so it can be resolved by commands.
+     *
+     * @param id The channel id.
+     * @param guildId The guild the channel is in, or null for a DM channel.
+     */
+    fun addChannel(id: Long, guildId: Long? = GUILD_ID) {
+        val data = ChannelData.builder()
+                .id(id.toString())
+                .type(if (guildId == null) 1 else 0)
+                .guildId(if (guildId == null) Possible.absent() else Possible.of(guildId.toString()))
+                .build()
+        state.channelStore.save(id, data).block()
+    }
+
+    /**
+     * Publishes an event as if it was received from the gateway.
+     *
+     * @param event The event.
+     */
+    fun publish(event: Event) = dispatcher.publish(event)
+
+    /**
+     * Creates a harmony instance backed by this gateway without logging in.
+     *
+     * @param options The command options, commands are disabled if this is null.
+     * @return The harmony instance.
+     */
+    fun harmony(options: CommandOptions? = null) = Harmony(client, self, owner,
+            if (options == null) Feature.disable() else Feature.enable(options))
+
+    /**
+     * Creates a message.
+     *
+     * @param content The message content.
+     * @param author The author of the message.
+     * @param channelId The channel the message was sent in.
+     * @param guildId The guild the message was sent in, or null for a DM.
+     * @return The message.
+     */
+    fun message(content: String, author: UserData = user, channelId: Long = CHANNEL_ID,
+                guildId: Long? = GUILD_ID): Message {
+        val data = MessageData.builder()
+                .id(messageIds.incrementAndGet().toString())
+                .channelId(channelId.toString())
+                .guildId(if (guildId == null) Possible.absent() else Possible.of(guildId.toString()))
+                .author(author)
+                .content(content)
+                .timestamp(Instant.now().toString())
+                .tts(false)
+                .mentionEveryone(false)
+                .pinned(false)
+                .type(0)
+                .build()
+        return Message(client, data)
+    }
+
+    /**
+     * Creates a message create event.
+     *
+     * @param content The message content.
+     * @param author The author of the message.
+     * @param channelId The channel the message was sent in.
+     * @param guildId The guild the message was sent in, or null for a DM.
+     * @return The event.
+     */
+    fun messageCreate(content: String, author: UserData = user, channelId: Long = CHANNEL_ID,
+                      guildId: Long? = GUILD_ID) = MessageCreateEvent(client, ShardInfo.create(0, 1),
+            message(content, author, channelId, guildId), guildId, null)
+}
+
+fun userData(id: Long, name: String, bot: Boolean = false): UserData = UserData.builder()
+        .id(id.toString())
+        .username(name)
+        .discriminator("0001")
+        .bot(bot)
+        .build()
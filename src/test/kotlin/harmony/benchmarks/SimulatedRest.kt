@@ -0,0 +1,79 @@
+package harmony.benchmarks
+
+import discord4j.discordjson.json.MessageData
+import discord4j.discordjson.json.UserData
+import discord4j.rest.RestClient
+import discord4j.rest.request.DiscordWebRequest
+import discord4j.rest.request.DiscordWebResponse
+import discord4j.rest.request.Router
+import discord4j.rest.service.ChannelService
+import discord4j.rest.util.MultipartRequest
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A [RestClient] which answers requests locally instead of calling Discord. Sent messages and reactions are recorded,
+ * every other route fails.
+ *
+ * @param latency The simulated round trip time of each request.
+ * @param author The user sent messages are attributed to.
+ */
+class SimulatedRest(private val latency: Duration = Duration.ZERO,
+                    private val author: UserData = userData(SELF_ID, "Harmony", true)) : RestClient(OfflineRouter) {
+
+    private val messageIds = AtomicLong(500000000000000000L)
+    private val channelService = RecordingChannelService()
+
+    /**
+     * The number of messages sent.
+     */
+    val messagesSent = AtomicLong()
+
+    /**
+     * The number of reactions added.
+     */
+    val reactionsAdded = AtomicLong()
+
+    /**
+     * Called with the channel id and content of every message as it is sent.
+     */
+    @Volatile
+    var onCreateMessage: (Long, String) -> Unit = { _, _ -> }
+
+    override fun getChannelService(): ChannelService = channelService
+
+    private fun <T> respond(response: Mono<T>): Mono<T> = if (latency.isZero) response else response.delayElement(latency)
+
+    private inner class RecordingChannelService : ChannelService(OfflineRouter) {
+
+        override fun createMessage(channelId: Long, request: MultipartRequest): Mono<MessageData> = respond(Mono.fromCallable<MessageData> {
+            val content = request.createRequest?.content()?.toOptional()?.orElse(null) ?: ""
+            messagesSent.incrementAndGet()
+            onCreateMessage(channelId, content)
+
+            MessageData.builder()
+                    .id(messageIds.incrementAndGet().toString())
+                    .channelId(channelId.toString())
+                    .author(author)
+                    .content(content)
+                    .timestamp(Instant.now().toString())
+                    .tts(false)
+                    .mentionEveryone(false)
+                    .pinned(false)
+                    .type(0)
+                    .build()
+        })
+
+        override fun createReaction(channelId: Long, messageId: Long, emoji: String): Mono<Void> = respond(Mono.fromRunnable {
+            reactionsAdded.incrementAndGet()
+        })
+    }
+
+    private object OfflineRouter : Router {
+
+        override fun exchange(request: DiscordWebRequest): DiscordWebResponse =
+                throw UnsupportedOperationException("${request.route.uriTemplate} is not simulated")
+    }
+}
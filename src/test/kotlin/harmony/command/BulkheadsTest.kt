@@ -0,0 +1,90 @@
+package harmony.command
+
+import discord4j.common.util.Snowflake
+import org.junit.Assert.*
+import org.junit.Test
+import reactor.core.publisher.MonoProcessor
+import java.util.concurrent.CopyOnWriteArrayList
+
+class BulkheadsTest {
+
+    private val command = buildCommand("test") { responder { handle { "" } } }
+
+    private val results = CopyOnWriteArrayList<String>()
+
+    private fun Bulkheads.start(gate: MonoProcessor<String>, guildId: Long?, name: String) =
+            run(command, guildId, gate.map { name }).subscribe { results.add(it) }
+
+    @Test
+    fun queuesThenShedsPastTheLimits() {
+        val bulkheads = Bulkheads(ConcurrencyLimits(global = 3, perGuild = 2, maxQueued = 2))
+        val gates = List(6) { MonoProcessor.create<String>() }
+        val guilds = listOf(1L, 1L, 1L, 2L, 3L, 3L)
+        gates.forEachIndexed { i, gate -> bulkheads.start(gate, guilds[i], "$i") }
+
+        // 0 and 1 fill guild 1 so 2 waits, 3 fills the global limit so 4 waits, and 5 doesn't fit in the queue
+        assertEquals(3, bulkheads.inFlight)
+        assertEquals(2, bulkheads.queued)
+        assertEquals(1L, bulkheads.shed)
+        assertEquals(2, bulkheads.inFlight(Snowflake.of(1)))
+
+        // Guild 1 is still full, so the freed slot goes to 4 even though 2 was queued first
+        gates[3].onNext("")
+        assertEquals(listOf("3"), results)
+        assertEquals(3, bulkheads.inFlight)
+        assertEquals(1, bulkheads.queued)
+
+        gates[0].onNext("")
+        assertEquals(3, bulkheads.inFlight)
+        assertEquals(0, bulkheads.queued)
+        assertEquals(2, bulkheads.inFlight(Snowflake.of(1)))
+
+        gates[1].onNext(""); gates[2].onNext(""); gates[4].onNext("")
+        assertEquals(listOf("3", "0", "1", "2", "4"), results)
+        assertEquals(0, bulkheads.inFlight)
+        assertEquals(5L, bulkheads.admitted)
+        assertEquals(2L, bulkheads.delayed)
+        assertEquals(0, bulkheads.inFlight(command))
+    }
+
+    @Test
+    fun shedsImmediatelyWithTheShedPolicy() {
+        val bulkheads = Bulkheads(ConcurrencyLimits(perCommand = 1, policy = SaturationPolicy.SHED))
+        val first = MonoProcessor.create<String>()
+        bulkheads.start(first, null, "first")
+        bulkheads.start(MonoProcessor.create(), null, "second")
+
+        assertEquals(1, bulkheads.inFlight)
+        assertEquals(0, bulkheads.queued)
+        assertEquals(1L, bulkheads.shed)
+
+        first.onNext("")
+        assertEquals(listOf("first"), results)
+        assertEquals(0, bulkheads.inFlight)
+    }
+
+    @Test
+    fun cancellingReleasesSlotsAndQueuePositions() {
+        val bulkheads = Bulkheads(ConcurrencyLimits(global = 1, maxQueued = 2))
+        val running = bulkheads.start(MonoProcessor.create(), 1, "running")
+        val queued = bulkheads.start(MonoProcessor.create(), 1, "queued")
+        val last = MonoProcessor.create<String>()
+        bulkheads.start(last, 1, "last")
+        assertEquals(1, bulkheads.inFlight)
+        assertEquals(2, bulkheads.queued)
+
+        queued.dispose()
+        assertEquals(1, bulkheads.queued)
+
+        // Cancelling a running execution frees its slot for the next in the queue
+        running.dispose()
+        assertEquals(1, bulkheads.inFlight)
+        assertEquals(0, bulkheads.queued)
+
+        last.onNext("")
+        assertEquals(listOf("last"), results)
+        assertEquals(0, bulkheads.inFlight)
+        assertEquals(0, bulkheads.inFlight(Snowflake.of(1)))
+        assertEquals(0L, bulkheads.shed)
+    }
+}
@@ -0,0 +1,119 @@
+package harmony.command
+
+import discord4j.common.util.Snowflake
+import harmony.benchmarks.OfflineGateway
+import harmony.command.interfaces.AsyncPrefixProvider
+import org.junit.Assert.*
+import org.junit.Test
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+
+class CachingPrefixProviderTest {
+
+    private val gateway = OfflineGateway()
+
+    private val timeout = Duration.ofSeconds(5)
+
+    private fun messageIn(guildId: Long) = gateway.messageCreate("x", channelId = 1000 + guildId, guildId = guildId)
+
+    /**
+     * Loads "v<version>" for every guild, or fails while [failing] is set.
+     */
+    private inner class VersionedProvider(private val delay: Duration = Duration.ZERO) : AsyncPrefixProvider {
+
+        val version = AtomicInteger()
+        val batches = CopyOnWriteArrayList<Collection<Snowflake>>()
+
+        @Volatile
+        var failing = false
+
+        override fun getGuildPrefix(guildId: Snowflake): Mono<String> = Mono.error(UnsupportedOperationException())
+
+        override fun getDmPrefix(authorId: Snowflake): Mono<String> = Mono.empty()
+
+        override fun getGuildPrefixes(guildIds: Collection<Snowflake>): Mono<Map<Snowflake, Set<String>>> {
+            batches.add(guildIds)
+            val v = version.get()
+            if (failing) return Mono.error(IllegalStateException("Database is down"))
+            return Mono.delay(delay).map { guildIds.associateWith { setOf("v$v") } }
+        }
+    }
+
+    @Test
+    fun loadsMissesInBatchesAndCachesThem() {
+        val provider = VersionedProvider(Duration.ofMillis(20))
+        val cache = CachingPrefixProvider(provider, batchWindow = Duration.ofMillis(50))
+
+        val first = cache.prefetch(messageIn(1))!!
+        val second = cache.prefetch(messageIn(2))!!
+        assertSame(first, cache.prefetch(messageIn(1)))  // Misses for the same guild share a load
+
+        assertEquals(setOf("v0"), first.block(timeout))
+        assertEquals(setOf("v0"), second.block(timeout))
+        assertEquals(1, provider.batches.size)
+        assertEquals(setOf(Snowflake.of(1), Snowflake.of(2)), provider.batches[0].toSet())
+
+        assertNull(cache.prefetch(messageIn(1)))
+        assertEquals(setOf("v0"), cache.getGuildPrefixes(Snowflake.of(1), Snowflake.of(1001)))
+        assertEquals("v0", cache.getGuildPrefix(Snowflake.of(2), Snowflake.of(1002)).get())
+    }
+
+    @Test
+    fun invalidationFencesLoadsInFlight() {
+        val provider = VersionedProvider(Duration.ofMillis(100))
+        val cache = CachingPrefixProvider(provider)
+        val guild = Snowflake.of(1)
+
+        val stale = cache.prefetch(messageIn(1))!!
+        Thread.sleep(40)  // Let the batch start loading
+        provider.version.incrementAndGet()
+        cache.invalidateGuild(guild)
+
+        // The waiting message still gets the prefixes it was loaded with, but they aren't cached
+        assertEquals(setOf("v0"), stale.block(timeout))
+        assertTrue(cache.getGuildPrefixes(guild, guild).isEmpty())
+
+        assertEquals(setOf("v1"), cache.prefetch(messageIn(1))!!.block(timeout))
+        assertEquals(setOf("v1"), cache.getGuildPrefixes(guild, guild))
+
+        cache.invalidateAll()
+        assertTrue(cache.getGuildPrefixes(guild, guild).isEmpty())
+    }
+
+    @Test
+    fun failedLoadsFallBackWithoutCaching() {
+        val provider = VersionedProvider()
+        val cache = CachingPrefixProvider(provider, ttl = Duration.ofMillis(100))
+        val guild = Snowflake.of(1)
+
+        provider.failing = true
+        assertEquals(emptySet<String>(), cache.prefetch(messageIn(1))!!.block(timeout))
+        assertTrue(cache.getGuildPrefixes(guild, guild).isEmpty())
+
+        // Failures aren't cached, so the next message loads again
+        provider.failing = false
+        assertEquals(setOf("v0"), cache.prefetch(messageIn(1))!!.block(timeout))
+
+        // Once expired, a failed reload falls back to the expired prefixes
+        Thread.sleep(150)
+        provider.failing = true
+        provider.version.incrementAndGet()
+        assertEquals(setOf("v0"), cache.prefetch(messageIn(1))!!.block(timeout))
+        assertTrue(cache.getGuildPrefixes(guild, guild).isEmpty())
+    }
+
+    @Test
+    fun slowLoadsTimeOut() {
+        val provider = object : AsyncPrefixProvider {
+            override fun getGuildPrefix(guildId: Snowflake): Mono<String> = Mono.never()
+
+            override fun getDmPrefix(authorId: Snowflake): Mono<String> = Mono.never()
+        }
+        val cache = CachingPrefixProvider(provider, loadTimeout = Duration.ofMillis(50))
+
+        assertEquals(emptySet<String>(), cache.prefetch(messageIn(1))!!.block(timeout))
+        assertNotNull(cache.prefetch(messageIn(1)))
+    }
+}
@@ -0,0 +1,101 @@
+package harmony.command
+
+import harmony.Harmony
+import harmony.benchmarks.OfflineGateway
+import harmony.command.interfaces.ArgumentMappingException
+import harmony.command.util.CommandCall
+import harmony.util.InvokeHandle
+import discord4j.core.event.domain.message.MessageCreateEvent
+import org.junit.Assert.*
+import org.junit.Test
+import reactor.core.Exceptions
+import reactor.core.publisher.Mono
+import java.util.concurrent.CopyOnWriteArrayList
+
+class OverloadResolverTest {
+
+    private val gateway = OfflineGateway()
+
+    private val harmony = gateway.harmony()
+
+    private val event = gateway.messageCreate("!test")
+
+    private val prepared = CopyOnWriteArrayList<String>()
+
+    private val called = CopyOnWriteArrayList<String>()
+
+    /**
+     * A responder whose arguments map if [accepts] the tokens, and which then fails if [fails] is set.
+     */
+    private fun responder(name: String, fails: Boolean = false, accepts: (Tokens) -> Boolean) = object : InvokeHandle {
+        override fun prepare(harmony: Harmony, event: MessageCreateEvent, tokens: Tokens): Mono<CommandCall> {
+            prepared.add(name)
+            if (!accepts(tokens)) return Mono.error(ArgumentMappingException())
+
+            return Mono.just(CommandCall {
+                called.add(name)
+                if (fails) Mono.error<Any>(ArgumentMappingException()) else Mono.just(name)
+            })
+        }
+    }
+
+    private fun resolver(vararg responders: Pair<Class<*>, InvokeHandle>): OverloadResolver {
+        val tree = Tree()
+        for ((type, handle) in responders) tree.addChild(Node(type, handle))
+        return OverloadResolver(DispatchTable(tree))
+    }
+
+    private fun OverloadResolver.invoke(args: String) = invoke(harmony, event, CommandTokenizer.tokenize(args)).block()
+
+    @Test
+    fun fallsBackWhenArgumentsDontMap() {
+        val resolver = resolver(
+                Integer.TYPE to responder("int") { it[0] == "7" },
+                String::class.java to responder("string") { true })
+
+        assertEquals("int", resolver.invoke("7"))
+        assertEquals("string", resolver.invoke("12"))
+        assertEquals(listOf("int", "int", "string"), prepared)
+        assertEquals(listOf("int", "string"), called)
+    }
+
+    @Test
+    fun remembersWhichCandidateMapsAShape() {
+        val resolver = resolver(
+                Integer.TYPE to responder("int") { it[0].all { c -> c.isDigit() } },
+                String::class.java to responder("string") { true })
+
+        assertEquals("string", resolver.invoke("ab"))
+        prepared.clear()
+        assertEquals("string", resolver.invoke("cd"))
+        assertEquals(listOf("string"), prepared)
+    }
+
+    @Test
+    fun neverFallsBackOnceAResponderRuns() {
+        val resolver = resolver(
+                String::class.java to responder("string", fails = true) { true },
+                Any::class.java to responder("any", fails = true) { true })
+
+        try {
+            resolver.invoke("boom")
+            fail("The responder's failure should be propagated")
+        } catch (e: RuntimeException) {
+            assertTrue(Exceptions.unwrap(e) is ArgumentMappingException)
+        }
+        assertEquals(1, called.size)
+    }
+
+    @Test
+    fun failsWhenNoCandidateMaps() {
+        val resolver = resolver(Integer.TYPE to responder("int") { false })
+
+        try {
+            resolver.invoke("ab")
+            fail("No responder should accept the arguments")
+        } catch (e: RuntimeException) {
+            assertTrue(Exceptions.unwrap(e) is ArgumentMappingException)
+        }
+        assertTrue(called.isEmpty())
+    }
+}
@@ -0,0 +1,54 @@
+package harmony.command
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.time.Duration
+
+class RateLimiterTest {
+
+    @Test
+    fun allowsABurstThenThrottles() {
+        val limiter = RateLimiter(RateLimit(3, Duration.ofSeconds(30)))
+
+        repeat(3) { assertEquals(0L, limiter.tryAcquire(1)) }
+
+        // One use is refilled every 10 seconds
+        val wait = limiter.tryAcquire(1)
+        assertTrue(wait > 0)
+        assertTrue(wait <= Duration.ofSeconds(10).toNanos())
+
+        // Other keys have their own buckets
+        assertEquals(0L, limiter.tryAcquire(2))
+    }
+
+    @Test
+    fun refillsOneUsePerInterval() {
+        val limiter = RateLimiter(RateLimit(2, Duration.ofMillis(400)))
+
+        assertEquals(0L, limiter.tryAcquire(1))
+        assertEquals(0L, limiter.tryAcquire(1))
+        assertTrue(limiter.tryAcquire(1) > 0)
+
+        // After a single interval only one use is available again
+        Thread.sleep(250)
+        assertEquals(0L, limiter.tryAcquire(1))
+        assertTrue(limiter.tryAcquire(1) > 0)
+
+        // An idle bucket refills up to the burst, but no further
+        Thread.sleep(450)
+        assertEquals(0L, limiter.tryAcquire(1))
+        assertEquals(0L, limiter.tryAcquire(1))
+        assertTrue(limiter.tryAcquire(1) > 0)
+    }
+
+    @Test
+    fun throttledAttemptsDontUseTokens() {
+        val limiter = RateLimiter(RateLimit(1, Duration.ofMillis(200)))
+
+        assertEquals(0L, limiter.tryAcquire(1))
+        repeat(100) { assertTrue(limiter.tryAcquire(1) > 0) }
+
+        Thread.sleep(250)
+        assertEquals(0L, limiter.tryAcquire(1))
+    }
+}
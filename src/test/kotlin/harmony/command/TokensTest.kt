@@ -0,0 +1,54 @@
+package harmony.command
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class TokensTest {
+
+    private fun tokens(args: String, from: Int = 0) = CommandTokenizer.tokenize(args, from).let { tokens ->
+        (0 until tokens.size).map { tokens[it] }
+    }
+
+    @Test
+    fun splitsOnWhitespace() {
+        assertEquals(listOf("a", "b"), tokens("  a   b "))
+        assertEquals(emptyList<String>(), tokens("   "))
+        assertTrue(CommandTokenizer.tokenize("   ").isEmpty())
+        assertEquals(listOf("b"), tokens("a b", 1))
+    }
+
+    @Test
+    fun keepsQuotedTokensTogether() {
+        assertEquals(listOf("a b", "c"), tokens("\"a b\" c"))
+        assertEquals(listOf("x y", "z"), tokens("'x y' z"))
+        assertEquals(listOf("", "open ended"), tokens("\"\" \"open ended"))
+    }
+
+    @Test
+    fun onlyQuotesAtTheStartOfATokenCount() {
+        assertEquals(listOf("it's", "x y"), tokens("it's 'x y'"))
+        assertEquals(listOf("say\"hi", "there\""), tokens("say\"hi there\""))
+    }
+
+    @Test
+    fun unescapesBackslashes() {
+        assertEquals(listOf("a b", "\"q\"", "\\n", "\\"), tokens("a\\ b \\\"q\\\" \\n \\\\"))
+    }
+
+    @Test
+    fun collapsesTrailingTokensVerbatim() {
+        val tokens = CommandTokenizer.tokenize("x 'a b'  c").collapse(2)
+        assertEquals(2, tokens.size)
+        assertEquals("x", tokens[0])
+        assertEquals("'a b'  c", tokens[1])
+        assertEquals("b", CommandTokenizer.tokenize("a b   ").collapse(2)[1])
+    }
+
+    @Test
+    fun findsTokensLazily() {
+        val tokens = CommandTokenizer.tokenize("a b " + "y ".repeat(10000))
+        assertEquals(2, tokens.countUpTo(2))
+        assertEquals("a", tokens[0])
+        assertEquals(10002, tokens.size)
+    }
+}
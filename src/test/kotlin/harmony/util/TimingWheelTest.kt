@@ -0,0 +1,61 @@
+package harmony.util
+
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class TimingWheelTest {
+
+    // A small wheel, so that most timers need several rounds
+    private val wheel = TimingWheel(Duration.ofMillis(10), 4)
+
+    @After
+    fun dispose() = wheel.dispose()
+
+    @Test
+    fun firesTimersAfterSeveralRounds() {
+        val start = System.nanoTime()
+        val fired = ConcurrentHashMap<Long, Long>()
+        val done = CountDownLatch(3)
+        for (delay in listOf(25L, 95L, 205L)) {
+            wheel.schedule({
+                fired[delay] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                done.countDown()
+            }, delay, TimeUnit.MILLISECONDS)
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        for ((delay, at) in fired) assertTrue("Timer for ${delay}ms fired after ${at}ms", at >= delay)
+        assertEquals(0L, wheel.liveTimers)
+    }
+
+    @Test
+    fun cancelledTimersNeverFire() {
+        val fired = ConcurrentHashMap.newKeySet<Int>()
+        val timers = (0 until 20).map { i -> wheel.schedule({ fired.add(i) }, 20L + i * 5, TimeUnit.MILLISECONDS) }
+        timers.filterIndexed { i, _ -> i % 2 == 0 }.forEach { it.dispose() }
+        assertEquals(10L, wheel.liveTimers)
+        assertTrue(timers[0].isDisposed)
+
+        Thread.sleep(400)
+        assertEquals((0 until 20).filter { it % 2 != 0 }.toSet(), fired)
+        assertEquals(0L, wheel.liveTimers)
+    }
+
+    @Test
+    fun drivesReactorTimeouts() {
+        assertEquals(7, Mono.never<Int>().timeout(Duration.ofMillis(50), wheel).onErrorReturn(7)
+                .block(Duration.ofSeconds(5)))
+
+        val worker = wheel.createWorker()
+        worker.schedule({ fail("A disposed worker's timers should be cancelled") }, 50, TimeUnit.MILLISECONDS)
+        worker.dispose()
+        Thread.sleep(150)
+        assertEquals(0L, wheel.liveTimers)
+    }
+}